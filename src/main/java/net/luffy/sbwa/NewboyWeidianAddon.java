@@ -2,10 +2,15 @@ package net.luffy.sbwa;
 
 import net.luffy.Newboy;
 import net.luffy.sbwa.config.ConfigConfig;
+import net.luffy.sbwa.config.GroupCommitWriter;
 import net.luffy.sbwa.handler.LgyzeroHandler;
 import net.luffy.sbwa.handler.NewWeidianSenderHandler;
+import net.luffy.sbwa.handler.OpponentAmountCache;
 import net.luffy.sbwa.handler.WeidianHandler;
 import net.luffy.sbwa.util.Common;
+import net.luffy.sbwa.util.ExecutorRegistry;
+import net.luffy.sbwa.util.PerformanceMonitor;
+import net.luffy.sbwa.util.SharedHttpClient;
 import net.mamoe.mirai.console.plugin.Plugin;
 import net.mamoe.mirai.console.plugin.PluginManager;
 import net.mamoe.mirai.console.plugin.jvm.JavaPlugin;
@@ -41,6 +46,26 @@ public final class NewboyWeidianAddon extends JavaPlugin {
         }
     }
 
+    @Override
+    public void onDisable() {
+        // 先停止发起请求的组件，再关闭处理请求的线程池，最后写完抽卡日志
+        if (OpponentAmountCache.INSTANCE != null) {
+            OpponentAmountCache.INSTANCE.shutdown();
+        }
+        if (weidianHandler != null) {
+            // 依次关闭StockMonitor、WebSalesExtractor与HTTP线程池
+            weidianHandler.shutdown();
+            weidianHandler = null;
+        }
+        PerformanceMonitor.shutdown();
+        if (GroupCommitWriter.INSTANCE != null) {
+            GroupCommitWriter.INSTANCE.close();
+        }
+        // 其余未关闭的线程池
+        ExecutorRegistry.getInstance().shutdownAll(10000);
+        SharedHttpClient.reset();
+    }
+
     private void initConfig() {
         new Common(getConfigFolder());
         config = new ConfigConfig(resolveConfigFile("config.setting"));
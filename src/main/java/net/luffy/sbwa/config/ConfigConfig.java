@@ -1,30 +1,68 @@
 package net.luffy.sbwa.config;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import cn.hutool.setting.Setting;
 import net.luffy.Newboy;
+import net.luffy.sbwa.handler.OpponentAmountCache;
 import net.luffy.sbwa.handler.WeidianHandler;
 import net.luffy.sbwa.model.Lottery2;
+import net.luffy.sbwa.model.PkDefinition;
 import net.luffy.sbwa.util.Common;
 import net.luffy.sbwa.util.PKUtil;
 
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class ConfigConfig extends SimpleSettingConfig {
     public static ConfigConfig INSTANCE;
     public boolean proxy_lgyzero;
+    //库存缓存过期后是否先返回旧值再后台刷新，以及旧值最多可使用多久
+    public boolean stock_stale_while_revalidate;
+    public long stock_max_stale_ms;
+    //库存与网页销量缓存的最大条目数
+    public int stock_cache_max_entries;
+    public int web_sales_cache_max_entries;
+    //库存监控时间轮的tick时长、每批查询的商品数与同时执行的批数
+    public long stock_monitor_tick_ms;
+    public int stock_monitor_batch_size;
+    public int stock_monitor_fetch_concurrency;
+    //是否将库存监控历史保存到磁盘，重启后恢复
+    public boolean stock_history_persist;
+    //库存接口表示商品不存在的业务状态码，其他非0状态码按接口错误处理
+    public Set<Integer> stock_not_found_codes;
+    //库存未变化时每隔多少分钟记录一次心跳，以及历史数据保留多少小时
+    public int stock_history_heartbeat_minutes;
+    public int stock_history_retention_hours;
+    //共享HTTP客户端每个host的最大并发连接数
+    public int http_max_connections_per_host;
+    //对微店每个host的限流：每秒请求数与突发上限
+    public int weidian_rate_per_second;
+    public int weidian_burst;
+    //熔断器：连续失败多少次后暂停请求，以及暂停多久后放行探测请求
+    public int breaker_failure_threshold;
+    public long breaker_open_ms;
+    //幂等GET请求的重试：最多尝试次数、退避基数与上限、整次调用截止时间
+    public int retry_max_attempts;
+    public long retry_base_delay_ms;
+    public long retry_max_delay_ms;
+    public long retry_deadline_ms;
+    //JDK 21及以上可让HTTP查询运行在虚拟线程上，并发数由以下上限控制
+    public boolean executor_virtual_threads;
+    public int executor_weidian_http_max_concurrency;
+    public int executor_web_sales_max_concurrency;
     //抽卡数据总表
     public ArrayList<ConfigLotteryDocument> lotteryDocuments;
     //pk数据总表
@@ -34,6 +72,96 @@ public class ConfigConfig extends SimpleSettingConfig {
     public JSONObject binding;
     public HashMap<String, Long> buyerIdBinded;
 
+    //查询索引，每次增删改后整体重建并替换，读取时无需加锁
+    //在父类构造器调用init()时建立，不能带初始化表达式
+    private volatile LotteryIndex lotteryIndex;
+    private volatile PkIndex pkIndex;
+
+    //群号+商品id组合键
+    private static final class GroupItemKey {
+        final long groupId;
+        final long itemId;
+
+        GroupItemKey(long groupId, long itemId) {
+            this.groupId = groupId;
+            this.itemId = itemId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupItemKey))
+                return false;
+            GroupItemKey k = (GroupItemKey) o;
+            return groupId == k.groupId && itemId == k.itemId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(groupId) * 31 + Long.hashCode(itemId);
+        }
+    }
+
+    private static final class LotteryIndex {
+        final Lottery2[] all;
+        final Map<String, Lottery2> byId = new HashMap<>();
+        final Map<Long, Lottery2[]> byGroup = new HashMap<>();
+        final Map<GroupItemKey, Lottery2[]> byGroupAndItem = new HashMap<>();
+
+        LotteryIndex(List<ConfigLotteryDocument> documents) {
+            List<Lottery2> a = new ArrayList<>();
+            Map<Long, List<Lottery2>> g = new HashMap<>();
+            Map<GroupItemKey, List<Lottery2>> gi = new HashMap<>();
+            for (ConfigLotteryDocument document : documents) {
+                Lottery2 l = document.getLottery();
+                if (l == null)
+                    continue;
+
+                a.add(l);
+                byId.putIfAbsent(l.lottery_id, l);
+                for (long groupId : distinct(l.groupIds)) {
+                    g.computeIfAbsent(groupId, k -> new ArrayList<>()).add(l);
+                    for (long itemId : distinct(l.item_ids)) {
+                        gi.computeIfAbsent(new GroupItemKey(groupId, itemId), k -> new ArrayList<>()).add(l);
+                    }
+                }
+            }
+            this.all = a.toArray(new Lottery2[0]);
+            g.forEach((k, v) -> byGroup.put(k, v.toArray(new Lottery2[0])));
+            gi.forEach((k, v) -> byGroupAndItem.put(k, v.toArray(new Lottery2[0])));
+        }
+    }
+
+    //只包含通过校验的pk，校验与解析只在增删改时进行一次
+    private static final class PkIndex {
+        final Map<Long, PkDefinition[]> byGroup = new HashMap<>();
+        final Map<GroupItemKey, PkDefinition[]> byGroupAndItem = new HashMap<>();
+        final List<PkDefinition> valid = new ArrayList<>();
+
+        PkIndex(ConfigConfig config, Map<String, JSONObject> pks) {
+            Map<Long, List<PkDefinition>> g = new HashMap<>();
+            Map<GroupItemKey, List<PkDefinition>> gi = new HashMap<>();
+            for (Map.Entry<String, JSONObject> entry : pks.entrySet()) {
+                if (!config.isValidPK(entry.getValue()))
+                    continue;
+                PkDefinition pk = PkDefinition.construct(entry.getKey(), entry.getValue());
+                if (pk == null)
+                    continue;
+
+                valid.add(pk);
+                for (long groupId : distinct(pk.getGroups())) {
+                    g.computeIfAbsent(groupId, k -> new ArrayList<>()).add(pk);
+                    gi.computeIfAbsent(new GroupItemKey(groupId, pk.itemId), k -> new ArrayList<>()).add(pk);
+                }
+            }
+            g.forEach((k, v) -> byGroup.put(k, v.toArray(new PkDefinition[0])));
+            gi.forEach((k, v) -> byGroupAndItem.put(k, v.toArray(new PkDefinition[0])));
+        }
+    }
+
+    private static long[] distinct(long[] a) {
+        return Arrays.stream(a).distinct().toArray();
+    }
+
     public ConfigConfig(File file) {
         super(file);
         INSTANCE = this;
@@ -44,11 +172,68 @@ public class ConfigConfig extends SimpleSettingConfig {
         setting.set("proxy_lgyzero", "false");
         setting.setByGroup("documents", "lottery", "[]");
         setting.setByGroup("binding", "lottery", "{}");
+        //抽卡记录持久化级别: none/batch/sync
+        setting.setByGroup("durability", "lottery", "batch");
+        setting.setByGroup("flush_interval_ms", "lottery", "5");
+        setting.setByGroup("flush_records", "lottery", "256");
+        setting.setByGroup("stale_while_revalidate", "stock", "true");
+        setting.setByGroup("max_stale_ms", "stock", "600000");
+        setting.setByGroup("max_entries", "stock", "10000");
+        setting.setByGroup("max_entries", "web_sales", "2000");
+        setting.setByGroup("monitor_tick_ms", "stock", "1000");
+        setting.setByGroup("monitor_batch_size", "stock", "20");
+        setting.setByGroup("monitor_fetch_concurrency", "stock", "4");
+        setting.setByGroup("history_persist", "stock", "true");
+        setting.setByGroup("not_found_codes", "stock", "[]");
+        setting.setByGroup("history_heartbeat_minutes", "stock", "60");
+        setting.setByGroup("history_retention_hours", "stock", "72");
+        setting.setByGroup("max_connections_per_host", "http", "8");
+        setting.setByGroup("weidian_rate_per_second", "http", "5");
+        setting.setByGroup("weidian_burst", "http", "10");
+        setting.setByGroup("failure_threshold", "breaker", "5");
+        setting.setByGroup("open_ms", "breaker", "30000");
+        setting.setByGroup("max_attempts", "retry", "3");
+        setting.setByGroup("base_delay_ms", "retry", "200");
+        setting.setByGroup("max_delay_ms", "retry", "2000");
+        setting.setByGroup("deadline_ms", "retry", "8000");
+        setting.setByGroup("virtual_threads", "executor", "false");
+        setting.setByGroup("weidian_http_max_concurrency", "executor", "64");
+        setting.setByGroup("web_sales_max_concurrency", "executor", "16");
+        //pk对手金额后台刷新间隔、陈旧上限与首次加载等待时间
+        setting.setByGroup("refresh_ms", "pk_opponent", "60000");
+        setting.setByGroup("max_stale_ms", "pk_opponent", "600000");
+        setting.setByGroup("load_wait_ms", "pk_opponent", "3000");
     }
 
     @Override
     public void init() {
         proxy_lgyzero = setting.getBool("proxy_lgyzero", false);
+        stock_stale_while_revalidate = setting.getBool("stale_while_revalidate", "stock", true);
+        stock_max_stale_ms = setting.getInt("max_stale_ms", "stock", 600000);
+        stock_cache_max_entries = setting.getInt("max_entries", "stock", 10000);
+        web_sales_cache_max_entries = setting.getInt("max_entries", "web_sales", 2000);
+        stock_monitor_tick_ms = setting.getInt("monitor_tick_ms", "stock", 1000);
+        stock_monitor_batch_size = setting.getInt("monitor_batch_size", "stock", 20);
+        stock_monitor_fetch_concurrency = setting.getInt("monitor_fetch_concurrency", "stock", 4);
+        stock_history_persist = setting.getBool("history_persist", "stock", true);
+        stock_not_found_codes = new HashSet<>();
+        for (Object o : JSONUtil.parseArray(setting.getStr("not_found_codes", "stock", "[]")).toArray()) {
+            stock_not_found_codes.add(Integer.parseInt(o.toString()));
+        }
+        stock_history_heartbeat_minutes = setting.getInt("history_heartbeat_minutes", "stock", 60);
+        stock_history_retention_hours = setting.getInt("history_retention_hours", "stock", 72);
+        http_max_connections_per_host = setting.getInt("max_connections_per_host", "http", 8);
+        weidian_rate_per_second = setting.getInt("weidian_rate_per_second", "http", 5);
+        weidian_burst = setting.getInt("weidian_burst", "http", 10);
+        breaker_failure_threshold = setting.getInt("failure_threshold", "breaker", 5);
+        breaker_open_ms = setting.getInt("open_ms", "breaker", 30000);
+        retry_max_attempts = setting.getInt("max_attempts", "retry", 3);
+        retry_base_delay_ms = setting.getInt("base_delay_ms", "retry", 200);
+        retry_max_delay_ms = setting.getInt("max_delay_ms", "retry", 2000);
+        retry_deadline_ms = setting.getInt("deadline_ms", "retry", 8000);
+        executor_virtual_threads = setting.getBool("virtual_threads", "executor", false);
+        executor_weidian_http_max_concurrency = setting.getInt("weidian_http_max_concurrency", "executor", 64);
+        executor_web_sales_max_concurrency = setting.getInt("web_sales_max_concurrency", "executor", 16);
 
         File documentFolder = Common.I.documentFolder;
 
@@ -57,6 +242,12 @@ public class ConfigConfig extends SimpleSettingConfig {
         pk = new HashMap<>();
 
         //抽卡
+        if (GroupCommitWriter.INSTANCE == null) {
+            new GroupCommitWriter(
+                    GroupCommitWriter.Durability.parse(setting.getStr("durability", "lottery", "batch")),
+                    setting.getInt("flush_interval_ms", "lottery", 5),
+                    setting.getInt("flush_records", "lottery", 256));
+        }
         for (Object o : JSONUtil.parseArray(setting.getStr("documents", "lottery", "[]")).toArray()) {
             String id = (String) o;
             File d = new File(documentFolder, id + ".json");
@@ -71,15 +262,39 @@ public class ConfigConfig extends SimpleSettingConfig {
         }
 
         //pk
+        if (OpponentAmountCache.INSTANCE == null) {
+            new OpponentAmountCache(
+                    setting.getInt("refresh_ms", "pk_opponent", 60000),
+                    setting.getInt("max_stale_ms", "pk_opponent", 600000),
+                    setting.getInt("load_wait_ms", "pk_opponent", 3000));
+        }
         for (String id : setting.keySet("pk")) {
             JSONObject o = JSONUtil.parseObj(setting.getStr(id, "pk", "{}"));
             pk.put(id, o);
         }
+
+        reindexLotteries();
+        reindexPks();
+    }
+
+    //抽卡增删改后调用
+    public synchronized void reindexLotteries() {
+        lotteryIndex = new LotteryIndex(lotteryDocuments);
+    }
+
+    //pk增删改后调用
+    public synchronized void reindexPks() {
+        pkIndex = new PkIndex(this, pk);
+        if (OpponentAmountCache.INSTANCE != null)
+            OpponentAmountCache.INSTANCE.track(pkIndex.valid);
+        //已删除的PK不再需要库存监控
+        if (WeidianHandler.INSTANCE != null)
+            WeidianHandler.INSTANCE.getStockMonitor().retainPks(pk.keySet());
     }
 
     //抽卡
 
-    public String addLotteryByJSON(JSONObject json) {
+    public synchronized String addLotteryByJSON(JSONObject json) {
         String id = json.getStr("id", "");
         if (!(!id.equals("") && getLotteryById(id) == null)) {
             id = generateLotteryId();
@@ -93,6 +308,7 @@ public class ConfigConfig extends SimpleSettingConfig {
             ConfigLotteryDocument document = new ConfigLotteryDocument(id, d, l);
             lotteryDocuments.add(document);
             l.setDocument(document);
+            reindexLotteries();
 
             FileUtil.writeString(json.toStringPretty(), d, Charset.defaultCharset());
             JSONArray a = JSONUtil.parseArray(setting.getStr("documents", "lottery", "[]"));
@@ -104,7 +320,7 @@ public class ConfigConfig extends SimpleSettingConfig {
         }
     }
 
-    public void rmLottery(ConfigLotteryDocument document) {
+    public synchronized void rmLottery(ConfigLotteryDocument document) {
         String id = document.id;
         FileUtil.moveContent(new File(Common.I.documentFolder, id + ".json"),
                 new File(Common.I.historyFolder, id + ".json"), false);
@@ -119,6 +335,7 @@ public class ConfigConfig extends SimpleSettingConfig {
                 new File(Common.I.historyFolder, "id"), true);
 
         lotteryDocuments.remove(document);
+        reindexLotteries();
         JSONArray a = JSONUtil.parseArray(setting.getStr("documents", "lottery", "[]"));
         a.add(id);
         setting.setByGroup("documents", "lottery", a.toString());
@@ -135,38 +352,17 @@ public class ConfigConfig extends SimpleSettingConfig {
     }
 
     public Lottery2[] getLotterysByGroupIdAndItemId(long groupId, long item_id) {
-        List<Lottery2> a = new ArrayList<>();
-        for (ConfigLotteryDocument document : lotteryDocuments) {
-            Lottery2 l = document.getLottery();
-            if (l != null) {
-                if (ArrayUtil.contains(l.groupIds, groupId) && ArrayUtil.contains(l.item_ids, item_id)) {
-                    a.add(document.getLottery());
-                }
-            }
-        }
-        return a.toArray(new Lottery2[0]);
+        Lottery2[] a = lotteryIndex.byGroupAndItem.get(new GroupItemKey(groupId, item_id));
+        return a == null ? new Lottery2[0] : a.clone();
     }
 
     public Lottery2[] getLotteryByGroupId(long groupId) {
-        List<Lottery2> a = new ArrayList<>();
-        for (ConfigLotteryDocument document : lotteryDocuments) {
-            Lottery2 l = document.getLottery();
-            if (l != null) {
-                if (ArrayUtil.contains(l.groupIds, groupId)) {
-                    a.add(document.getLottery());
-                }
-            }
-        }
-        return a.toArray(new Lottery2[0]);
+        Lottery2[] a = lotteryIndex.byGroup.get(groupId);
+        return a == null ? new Lottery2[0] : a.clone();
     }
 
     public Lottery2[] getAllNonNullLotterys() {
-        List<Lottery2> a = new ArrayList<>();
-        for (ConfigLotteryDocument document : lotteryDocuments) {
-            if (document.getLottery() != null)
-                a.add(document.getLottery());
-        }
-        return a.toArray(new Lottery2[0]);
+        return lotteryIndex.all.clone();
     }
 
     public String generateLotteryId() {
@@ -178,14 +374,7 @@ public class ConfigConfig extends SimpleSettingConfig {
     }
 
     public Lottery2 getLotteryById(String id) {
-        for (ConfigLotteryDocument document : lotteryDocuments) {
-            Lottery2 l = document.getLottery();
-            if (l != null) {
-                if (l.lottery_id.equals(id))
-                    return l;
-            }
-        }
-        return null;
+        return lotteryIndex.byId.get(id);
     }
 
     public long getBindingBuyerId(String qqId) {
@@ -231,109 +420,53 @@ public class ConfigConfig extends SimpleSettingConfig {
             return "null";
 
         // 异步处理主商品库存（使用批量查询优化）
-        CompletableFuture<Void> mainStockFuture = CompletableFuture.runAsync(() -> {
-            if (!PKUtil.doGroupsHaveCookie(json) && !json.containsKey("stock")) {
-                List<Long> itemIds = json.getBeanList("item_ids", Long.class);
-                if (itemIds != null && !itemIds.isEmpty()) {
-                    try {
-                        Map<Long, Long> stockMap = net.luffy.sbwa.handler.WeidianHandler.INSTANCE
-                            .getTotalStockBatch(itemIds).get(30, TimeUnit.SECONDS);
-                        
-                        long totalStock = stockMap.values().stream()
-                            .mapToLong(Long::longValue)
-                            .sum();
-                        
-                        if (totalStock != 0L) {
-                            synchronized (json) {
-                                json.set("stock", totalStock);
-                            }
-                        }
-                    } catch (Exception e) {
-                        // 降级到串行处理
-                        long stock = 0;
-                        for (Long item_id : itemIds) {
-                            long itemStock = net.luffy.sbwa.handler.WeidianHandler.INSTANCE.getTotalStock(item_id);
-                            
-                            // 检查累加是否会导致溢出
-                            if (itemStock > 0 && stock > Long.MAX_VALUE - itemStock) {
-                                System.err.println("警告: 异步PK主商品库存累加溢出，当前总额=" + stock + ", 新增=" + itemStock);
-                                stock = Long.MAX_VALUE;
-                                break;
-                            }
-                            
-                            stock += itemStock;
-                        }
-                        if (stock != 0L) {
-                            synchronized (json) {
-                                json.set("stock", stock);
-                            }
+        CompletableFuture<Void> mainStockFuture = CompletableFuture.completedFuture(null);
+        if (!PKUtil.doGroupsHaveCookie(json) && !json.containsKey("stock")) {
+            List<Long> itemIds = json.getBeanList("item_ids", Long.class);
+            if (itemIds != null && !itemIds.isEmpty()) {
+                mainStockFuture = WeidianHandler.INSTANCE.getStockResultBatch(itemIds).thenAccept(results -> {
+                    Long totalStock = sumStock(itemIds, results, "异步PK主商品");
+                    if (totalStock != null && totalStock != 0L) {
+                        synchronized (json) {
+                            json.set("stock", totalStock);
                         }
                     }
-                }
+                });
             }
-        });
+        }
 
-        // 异步并行处理所有对手的库存
+        // 异步并行处理所有对手的库存，查询不在公共线程池上阻塞等待
         JSONArray opponents = json.getJSONArray("opponents");
         List<CompletableFuture<JSONObject>> opponentFutures = new ArrayList<>();
+        // 任一对手失败即结束，不再等待其余对手
+        CompletableFuture<Void> firstFailure = new CompletableFuture<>();
         
         for (Object o : opponents.toArray()) {
             JSONObject opponent = JSONUtil.parseObj(o);
             
-            CompletableFuture<JSONObject> opponentFuture = CompletableFuture.supplyAsync(() -> {
-                if (opponent.containsKey("item_id")) {
-                    boolean success = opponent.containsKey("cookie") || opponent.containsKey("stock");
-                    if (!success) {
-                        List<Long> itemIds = opponent.getBeanList("item_id", Long.class);
-                        if (itemIds != null && !itemIds.isEmpty()) {
-                            try {
-                                // 使用批量查询优化
-                                Map<Long, Long> stockMap = net.luffy.sbwa.handler.WeidianHandler.INSTANCE
-                                    .getTotalStockBatch(itemIds).get(20, TimeUnit.SECONDS);
-                                
-                                long totalStock = stockMap.values().stream()
-                                    .mapToLong(Long::longValue)
-                                    .reduce(0L, (a, b) -> {
-                                        // 安全累加，防止溢出
-                                        if (b > 0 && a > Long.MAX_VALUE - b) {
-                                            System.err.println("警告: 异步PK库存累加溢出，当前总额=" + a + ", 新增=" + b);
-                                            return Long.MAX_VALUE;
-                                        }
-                                        return a + b;
-                                    });
-                                
-                                if (totalStock != 0L) {
-                                    opponent.set("stock", totalStock);
-                                    return opponent;
-                                }
-                            } catch (Exception e) {
-                                // 降级到串行处理
-                                long stock = 0;
-                                for (Long item_id : itemIds) {
-                                    long itemStock = net.luffy.sbwa.handler.WeidianHandler.INSTANCE.getTotalStock(item_id);
-                                    
-                                    // 检查累加是否会导致溢出
-                                    if (itemStock > 0 && stock > Long.MAX_VALUE - itemStock) {
-                                        System.err.println("警告: 异步PK对手库存累加溢出，当前总额=" + stock + ", 新增=" + itemStock);
-                                        stock = Long.MAX_VALUE;
-                                        break;
-                                    }
-                                    
-                                    stock += itemStock;
-                                }
-                                if (stock != 0L) {
-                                    opponent.set("stock", stock);
-                                    return opponent;
-                                }
+            CompletableFuture<JSONObject> opponentFuture = CompletableFuture.completedFuture(null); // null表示失败
+            if (opponent.containsKey("item_id")) {
+                if (opponent.containsKey("cookie") || opponent.containsKey("stock")) {
+                    opponentFuture = CompletableFuture.completedFuture(opponent);
+                } else {
+                    List<Long> itemIds = opponent.getBeanList("item_id", Long.class);
+                    if (itemIds != null && !itemIds.isEmpty()) {
+                        opponentFuture = WeidianHandler.INSTANCE.getStockResultBatch(itemIds).thenApply(results -> {
+                            Long totalStock = sumStock(itemIds, results, "异步PK对手");
+                            if (totalStock == null || totalStock == 0L) {
+                                return null;
                             }
-                        }
-                    } else {
-                        return opponent;
+                            opponent.set("stock", totalStock);
+                            return opponent;
+                        });
                     }
                 }
-                return null; // 表示失败
-            });
+            }
             
+            opponentFuture.whenComplete((r, t) -> {
+                if (r == null)
+                    firstFailure.complete(null);
+            });
             opponentFutures.add(opponentFuture);
         }
 
@@ -341,26 +474,23 @@ public class ConfigConfig extends SimpleSettingConfig {
             // 等待主商品库存处理完成
             mainStockFuture.get(30, TimeUnit.SECONDS);
             
-            // 等待所有对手库存处理完成
+            // 等待所有对手库存处理完成，或任一对手失败
             CompletableFuture<Void> allOpponentsFuture = CompletableFuture.allOf(
                 opponentFutures.toArray(new CompletableFuture[0])
             );
-            allOpponentsFuture.get(60, TimeUnit.SECONDS); // 给更多时间处理多个对手
+            CompletableFuture.anyOf(allOpponentsFuture, firstFailure).get(60, TimeUnit.SECONDS); // 给更多时间处理多个对手
+            if (firstFailure.isDone()) {
+                return "failed";
+            }
             
             // 收集结果
             JSONArray processedOpponents = new JSONArray();
             for (CompletableFuture<JSONObject> future : opponentFutures) {
-                JSONObject result = future.get();
-                if (result == null) {
-                    return "failed";
-                }
-                processedOpponents.add(result);
+                processedOpponents.add(future.get());
             }
             
             json.set("opponents", processedOpponents);
-            pk.put(id, json);
-            setting.setByGroup(id, "pk", json.toString());
-            save();
+            storePk(id, json);
             return id;
             
         } catch (Exception e) {
@@ -369,6 +499,31 @@ public class ConfigConfig extends SimpleSettingConfig {
         }
     }
     
+    /**
+     * 累加一组商品的库存，检查累加溢出
+     * @return 任一商品查询失败（不存在、限流、网络错误）时返回null
+     */
+    private static Long sumStock(List<Long> itemIds, Map<Long, WeidianHandler.CachedStockResult> results, String label) {
+        long stock = 0;
+        for (Long itemId : itemIds) {
+            WeidianHandler.CachedStockResult result = results.get(itemId);
+            if (result == null || !result.isOk()) {
+                System.err.println("警告: " + label + "商品" + itemId + "库存查询失败: "
+                        + (result == null ? "无结果" : result.status));
+                return null;
+            }
+            
+            // 检查累加是否会导致溢出
+            if (result.stock > 0 && stock > Long.MAX_VALUE - result.stock) {
+                System.err.println("警告: " + label + "库存累加溢出，当前总额=" + stock + ", 新增=" + result.stock);
+                return Long.MAX_VALUE;
+            }
+            
+            stock += result.stock;
+        }
+        return stock;
+    }
+    
     /**
      * 同步版本的PK创建（保持向后兼容）
      */
@@ -409,7 +564,13 @@ public class ConfigConfig extends SimpleSettingConfig {
                 if (!success) {
                     long stock = 0;
                     for (Long item_id : opponent.getBeanList("item_id", Long.class)) {
-                        long itemStock = net.luffy.sbwa.handler.WeidianHandler.INSTANCE.getTotalStock(item_id);
+                        WeidianHandler.CachedStockResult result = WeidianHandler.INSTANCE.getStockResult(item_id);
+                        // 商品不存在或查询失败时直接返回，不再查询其余商品
+                        if (!result.isOk()) {
+                            System.err.println("警告: 同步PK对手商品" + item_id + "库存查询失败: " + result.status);
+                            return "failed";
+                        }
+                        long itemStock = result.stock;
                         
                         // 检查累加是否会导致溢出
                         if (itemStock > 0 && stock > Long.MAX_VALUE - itemStock) {
@@ -437,17 +598,23 @@ public class ConfigConfig extends SimpleSettingConfig {
         }
 
         json.set("opponents", opponents);
+        storePk(id, json);
+        return id;
+    }
+
+    private synchronized void storePk(String id, JSONObject json) {
         pk.put(id, json);
         setting.setByGroup(id, "pk", json.toString());
         save();
-        return id;
+        reindexPks();
     }
 
-    public boolean rmPk(String id) {
+    public synchronized boolean rmPk(String id) {
         if (pk.containsKey(id)) {
             pk.remove(id);
             setting.remove("pk", id);
             save();
+            reindexPks();
             return true;
         } else
             return false;
@@ -484,14 +651,12 @@ public class ConfigConfig extends SimpleSettingConfig {
         return null;
     }
 
-    public boolean modify(String id, long deviation){
+    public synchronized boolean modify(String id, long deviation){
         try {
             if (pk.containsKey(id)) {
                 JSONObject o = pk.get(id);
                 o.set("deviation",o.getLong("deviation", 0L)+deviation);
-                pk.put(id, o);
-                setting.setByGroup(id, "pk", o.toString());
-                save();
+                storePk(id, o);
                 return true;
             }
         } catch (Exception e) {
@@ -500,14 +665,12 @@ public class ConfigConfig extends SimpleSettingConfig {
 
         return false;
     }
-    public boolean editStock(String id, long stock) {
+    public synchronized boolean editStock(String id, long stock) {
         try {
             if (pk.containsKey(id)) {
                 JSONObject o = pk.get(id);
                 o.set("stock", stock);
-                pk.put(id, o);
-                setting.setByGroup(id, "pk", o.toString());
-                save();
+                storePk(id, o);
                 return true;
             }
         } catch (Exception e) {
@@ -517,7 +680,7 @@ public class ConfigConfig extends SimpleSettingConfig {
         return false;
     }
 
-    public boolean editStock(String id, String opponent, long stock) {
+    public synchronized boolean editStock(String id, String opponent, long stock) {
         try {
             if (pk.containsKey(id)) {
                 JSONObject o = pk.get(id);
@@ -531,9 +694,7 @@ public class ConfigConfig extends SimpleSettingConfig {
                     a2.add(op1);
                 }
                 o.set("opponents", a2);
-                pk.put(id, o);
-                setting.setByGroup(id, "pk", o.toString());
-                save();
+                storePk(id, o);
                 return true;
             }
         } catch (Exception e) {
@@ -652,44 +813,18 @@ public class ConfigConfig extends SimpleSettingConfig {
         return true;
     }
 
-    public JSONObject[] getPkByGroupId(long groupId) {
-        List<JSONObject> j = new ArrayList<>();
-        for (JSONObject pk : pk.values()) {
-            if (isValidPK(pk)) {
-                for (Long g : pk.getBeanList("groups", Long.class)) {
-                    if (g.longValue() == groupId) {
-                        j.add(pk);
-                        break;
-                    }
-                }
-            }
-        }
-        return j.toArray(new JSONObject[0]);
+    public PkDefinition[] getPkByGroupId(long groupId) {
+        PkDefinition[] j = pkIndex.byGroup.get(groupId);
+        return j == null ? new PkDefinition[0] : j.clone();
     }
 
-    public JSONObject[] getPkByGroupIdAndItemId(long groupId, long item_id) {
-        List<JSONObject> j = new ArrayList<>();
-        for (JSONObject pk : pk.values()) {
-            if (isValidPK(pk) && pk.getLong("item_id").longValue() == item_id) {
-                for (Long g : pk.getBeanList("groups", Long.class)) {
-                    if (g.longValue() == groupId) {
-                        j.add(pk);
-                        break;
-                    }
-                }
-            }
-        }
-        return j.toArray(new JSONObject[0]);
+    public PkDefinition[] getPkByGroupIdAndItemId(long groupId, long item_id) {
+        PkDefinition[] j = pkIndex.byGroupAndItem.get(new GroupItemKey(groupId, item_id));
+        return j == null ? new PkDefinition[0] : j.clone();
     }
 
-    public List<Map.Entry<String, JSONObject>> getAllValidPk() {
-        List<Map.Entry<String, JSONObject>> j = new ArrayList<>();
-        for (Map.Entry<String, JSONObject> pk : pk.entrySet()) {
-            if (isValidPK(pk.getValue()))
-                j.add(pk);
-        }
-
-        return j;
+    public List<PkDefinition> getAllValidPk() {
+        return new ArrayList<>(pkIndex.valid);
     }
 
 }
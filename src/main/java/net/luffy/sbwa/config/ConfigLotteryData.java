@@ -1,13 +1,49 @@
 package net.luffy.sbwa.config;
 
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
+import net.luffy.sbwa.NewboyWeidianAddon;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * 抽卡数据：data.json为快照，每次抽卡只追加写入data.journal，
+ * 日志条数追上快照规模时再合并回data.json，单次抽卡的写入量与历史总量无关
+ * 日志由{@link GroupCommitWriter}批量写入
+ * 内存中每个买家只保存按奖品序号排列的数量数组，快照格式为 {"_gifts":[奖品id...], "买家id":[数量...]}
+ */
 public class ConfigLotteryData extends SimpleJSONConfig {
-    private JSONObject data;
+    //快照中记录已合并的日志序号，防止合并中途崩溃后重复回放
+    private static final String SEQ_KEY = "_seq";
+    //快照中奖品序号对应的奖品id
+    private static final String GIFTS_KEY = "_gifts";
+    //日志至少累积到此条数才合并
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    //旧格式快照首次合并前的备份，回退插件版本时可用它恢复
+    private static final String LEGACY_BACKUP_SUFFIX = ".v1.bak";
+
+    //以下字段在父类构造器调用init()时赋值，不能带初始化表达式
+    private Map<String, Integer> giftOrdinals;
+    private List<String> giftIds;
+    private Map<Long, int[]> counts;
+    private File journalFile;
+    private long seq;
+    private long snapshotSize;
+    private long journalRecords;
+    //快照仍为旧格式（每个买家一个奖品id列表），合并前需先备份
+    private boolean legacySnapshot;
 
     public ConfigLotteryData(File file) {
         super(file);
@@ -16,26 +52,250 @@ public class ConfigLotteryData extends SimpleJSONConfig {
     @Override
     public JSONObject init() {
         JSONObject l = super.init();
-        this.data = l;
+        this.giftOrdinals = new HashMap<>();
+        this.giftIds = new ArrayList<>();
+        this.counts = new HashMap<>();
+        this.journalFile = new File(this.configFile.getParentFile(), "data.journal");
+        this.seq = l.containsKey(SEQ_KEY) ? l.getLong(SEQ_KEY, 0L) : 0L;
+        loadSnapshot(l);
+        this.snapshotSize = countSnapshotSize();
+        //在回放日志之前判断，只有快照本身有旧格式数据时才需要迁移
+        this.legacySnapshot = !l.containsKey(GIFTS_KEY) && !this.counts.isEmpty();
+
+        this.journalRecords = replayJournal();
+        //有未合并的日志或快照仍为旧格式时合并一次
+        if (this.journalRecords > 0 || this.legacySnapshot) {
+            compact();
+        }
         return l;
     }
 
-    public String[] getGiftIds(long buyerID) {
-        if (this.data.containsKey("" + buyerID)) {
-            return this.data.getBeanList("" + buyerID, String.class).toArray(new String[0]);
+    private void loadSnapshot(JSONObject l) {
+        JSONArray gifts = l.getJSONArray(GIFTS_KEY);
+        if (gifts != null) {
+            for (Object id : gifts) {
+                ordinalOf(String.valueOf(id));
+            }
+        }
+
+        for (String key : l.keySet()) {
+            if (key.startsWith("_"))
+                continue;
+
+            long buyerID;
+            try {
+                buyerID = Long.parseLong(key);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            JSONArray a = l.getJSONArray(key);
+            if (gifts != null) {
+                int[] c = new int[a.size()];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a.getInt(i);
+                }
+                this.counts.put(buyerID, c);
+            } else {
+                //旧格式：每个买家一个奖品id列表
+                for (Object id : a) {
+                    apply(buyerID, String.valueOf(id));
+                }
+            }
+        }
+    }
+
+    private long countSnapshotSize() {
+        long size = this.giftIds.size();
+        for (int[] c : this.counts.values()) {
+            size += c.length;
         }
-        return new String[0];
+        return size;
+    }
+
+    /**
+     * 获取奖品序号，未出现过的奖品id会分配新序号；已分配的序号不会改变
+     */
+    public synchronized int ordinalOf(String giftId) {
+        Integer ordinal = this.giftOrdinals.get(giftId);
+        if (ordinal == null) {
+            ordinal = this.giftIds.size();
+            this.giftOrdinals.put(giftId, ordinal);
+            this.giftIds.add(giftId);
+        }
+        return ordinal;
+    }
+
+    /**
+     * 按顺序获取一组奖品的序号，新的抽卡数据中序号与传入顺序一致
+     */
+    public synchronized int[] ordinalsOf(String[] giftIds) {
+        int[] out = new int[giftIds.length];
+        for (int i = 0; i < giftIds.length; i++) {
+            out[i] = ordinalOf(giftIds[i]);
+        }
+        return out;
+    }
+
+    /**
+     * @return 按奖品序号排列的数量（副本），长度可能小于奖品总数，超出部分为0
+     */
+    public synchronized int[] getGiftCounts(long buyerID) {
+        int[] c = this.counts.get(buyerID);
+        return c == null ? new int[0] : c.clone();
     }
 
     public void addGiftId(long buyerID, String giftId) {
-        List<String> a;
-        if (this.data.containsKey("" + buyerID)) {
-            a = this.data.getBeanList("" + buyerID, String.class);
+        addGiftIds(buyerID, giftId);
+    }
+
+    /**
+     * 批量记录，只追加一次日志
+     * @return 这些记录落盘后完成；持久化级别为SYNC时本方法会等待其完成后才返回
+     */
+    public CompletableFuture<Void> addGiftIds(long buyerID, String... giftIds) {
+        CompletableFuture<Void> durable = record(buyerID, giftIds);
+        if (GroupCommitWriter.INSTANCE != null
+                && GroupCommitWriter.INSTANCE.getDurability() == GroupCommitWriter.Durability.SYNC) {
+            try {
+                durable.join();
+            } catch (Exception e) {
+                NewboyWeidianAddon.INSTANCE.getLogger().error("等待抽卡记录落盘失败", e);
+            }
+        }
+        return durable;
+    }
+
+    private synchronized CompletableFuture<Void> record(long buyerID, String... giftIds) {
+        if (giftIds.length == 0)
+            return CompletableFuture.completedFuture(null);
+
+        long now = System.currentTimeMillis();
+        StringBuilder b = new StringBuilder();
+        for (String giftId : giftIds) {
+            //序号\t买家\t时间\t奖品id，奖品id放最后以免其中含有分隔符
+            b.append(++seq).append('\t')
+                    .append(buyerID).append('\t')
+                    .append(now).append('\t')
+                    .append(giftId).append('\n');
+        }
+        CompletableFuture<Void> durable = appendJournal(b.toString(), giftIds.length);
+
+        apply(buyerID, giftIds);
+        this.journalRecords += giftIds.length;
+
+        //日志与快照规模相当时合并，均摊后每条记录的写入量为常数
+        if (this.journalRecords >= Math.max(COMPACT_MIN_RECORDS, this.snapshotSize)) {
+            compact();
+        }
+        return durable;
+    }
+
+    private CompletableFuture<Void> appendJournal(String lines, int records) {
+        GroupCommitWriter writer = GroupCommitWriter.INSTANCE;
+        if (writer == null) {
+            FileUtil.appendString(lines, this.journalFile, Charset.defaultCharset());
+            return CompletableFuture.completedFuture(null);
+        }
+        return writer.append(this.journalFile, lines.getBytes(Charset.defaultCharset()), records);
+    }
+
+    private void apply(long buyerID, String... giftIds) {
+        int[] c = this.counts.get(buyerID);
+        for (String giftId : giftIds) {
+            int ordinal = ordinalOf(giftId);
+            if (c == null || ordinal >= c.length) {
+                c = c == null ? new int[this.giftIds.size()] : Arrays.copyOf(c, this.giftIds.size());
+                this.counts.put(buyerID, c);
+            }
+            c[ordinal]++;
+        }
+    }
+
+    private long replayJournal() {
+        if (!this.journalFile.exists())
+            return 0;
+
+        long replayed = 0;
+        List<String> lines = FileUtil.readLines(this.journalFile, Charset.defaultCharset());
+        for (String line : lines) {
+            String[] parts = line.split("\t", 4);
+            if (parts.length < 4)
+                continue;//崩溃时写了一半的行
+
+            try {
+                long s = Long.parseLong(parts[0]);
+                if (s <= this.seq)
+                    continue;//已在快照中
+
+                apply(Long.parseLong(parts[1]), parts[3]);
+                this.seq = s;
+                replayed++;
+            } catch (NumberFormatException e) {
+                NewboyWeidianAddon.INSTANCE.getLogger().warning("跳过损坏的抽卡日志: " + line);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * 备份旧格式快照；已有备份时保留最早的备份
+     * @return 备份是否存在
+     */
+    private boolean backupLegacySnapshot() {
+        File backup = new File(this.configFile.getParentFile(), this.configFile.getName() + LEGACY_BACKUP_SUFFIX);
+        if (backup.exists()) {
+            return true;
+        }
+        try {
+            Files.copy(this.configFile.toPath(), backup.toPath());
+            return true;
+        } catch (IOException e) {
+            NewboyWeidianAddon.INSTANCE.getLogger().error("备份旧格式抽卡数据失败，暂不迁移: " + this.configFile.getPath(), e);
+            return false;
+        }
+    }
+
+    //先原子替换快照，再清空日志；清空操作排在写入器中已提交的日志之后执行
+    private void compact() {
+        //旧格式快照被新格式覆盖前先备份，备份失败时不合并
+        if (this.legacySnapshot && !backupLegacySnapshot()) {
+            return;
+        }
+
+        JSONObject o = new JSONObject();
+        o.set(SEQ_KEY, this.seq);
+        o.set(GIFTS_KEY, this.giftIds);
+        for (Map.Entry<Long, int[]> entry : this.counts.entrySet()) {
+            o.set("" + entry.getKey(), entry.getValue());
+        }
+        String snapshot = o.toString();
+
+        File tmp = new File(this.configFile.getParentFile(), this.configFile.getName() + ".tmp");
+        try {
+            //快照落盘后才能清空日志
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(snapshot.getBytes(Charset.defaultCharset()));
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), this.configFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            NewboyWeidianAddon.INSTANCE.getLogger().error("合并抽卡日志失败，保留日志待下次合并", e);
+            return;
+        }
+        if (this.legacySnapshot) {
+            this.legacySnapshot = false;
+            NewboyWeidianAddon.INSTANCE.getLogger().info("抽卡数据已迁移为新格式: " + this.configFile.getPath()
+                    + "，旧格式备份为 " + this.configFile.getName() + LEGACY_BACKUP_SUFFIX);
+        }
+
+        if (GroupCommitWriter.INSTANCE == null) {
+            FileUtil.writeString("", this.journalFile, Charset.defaultCharset());
         } else {
-            a = new ArrayList<>();
+            GroupCommitWriter.INSTANCE.truncate(this.journalFile);
         }
-        a.add(giftId);
-        this.data.set("" + buyerID, a);
-        write(this.data.toStringPretty());
+        this.snapshotSize = countSnapshotSize();
+        this.journalRecords = 0;
     }
 }
@@ -48,6 +48,8 @@ public class ConfigLotteryDocument extends SimpleJSONConfig {
         if (n != null) {
             write(object.toStringPretty());
             this.lottery = n;
+            if (ConfigConfig.INSTANCE != null)
+                ConfigConfig.INSTANCE.reindexLotteries();
         }
         return n;
     }
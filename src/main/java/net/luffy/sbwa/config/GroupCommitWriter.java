@@ -0,0 +1,217 @@
+package net.luffy.sbwa.config;
+
+import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.util.ExecutorRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 组提交写入器 - 汇集并发抽卡产生的日志，每隔几毫秒或攒够N条时统一写入，每批只fsync一次
+ * 所有文件操作都在单独的写入线程上按提交顺序执行
+ */
+public class GroupCommitWriter {
+
+    public static GroupCommitWriter INSTANCE;
+
+    public enum Durability {
+        NONE,   // 只写入系统缓存，不fsync
+        BATCH,  // 每批fsync一次，抽卡不等待落盘
+        SYNC;   // 每批fsync一次，抽卡等待所在批次落盘后才返回
+
+        public static Durability parse(String s) {
+            for (Durability d : values()) {
+                if (d.name().equalsIgnoreCase(s))
+                    return d;
+            }
+            return BATCH;
+        }
+    }
+
+    private static class Op {
+        final File file;     // null表示仅用于等待此前所有操作完成
+        final byte[] data;   // null表示清空文件
+        final int records;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Op(File file, byte[] data, int records) {
+            this.file = file;
+            this.data = data;
+            this.records = records;
+        }
+    }
+
+    private final Durability durability;
+    private final long flushIntervalMs;
+    private final int maxBatchRecords;
+    private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    // 仅由写入线程访问
+    private final Map<File, FileChannel> channels = new HashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public GroupCommitWriter(Durability durability, long flushIntervalMs, int maxBatchRecords) {
+        this.durability = durability;
+        this.flushIntervalMs = Math.max(1L, flushIntervalMs);
+        this.maxBatchRecords = Math.max(1, maxBatchRecords);
+        this.flusher = new Thread(this::run, ExecutorRegistry.THREAD_PREFIX + "LotteryJournalWriter");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        INSTANCE = this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * 追加写入
+     * @param records 本次包含的记录条数，用于判断批次是否已满
+     * @return 所在批次写入（按持久化级别需要时已fsync）后完成
+     */
+    public CompletableFuture<Void> append(File file, byte[] data, int records) {
+        return submit(new Op(file, data, records));
+    }
+
+    /**
+     * 清空文件，在此之前提交的追加会先写入
+     */
+    public CompletableFuture<Void> truncate(File file) {
+        return submit(new Op(file, null, 0));
+    }
+
+    /**
+     * @return 此前提交的所有操作完成后完成
+     */
+    public CompletableFuture<Void> flush() {
+        return submit(new Op(null, null, 0));
+    }
+
+    private CompletableFuture<Void> submit(Op op) {
+        if (!running) {
+            op.future.completeExceptionally(new IllegalStateException("写入器已关闭"));
+            return op.future;
+        }
+        queue.add(op);
+        return op.future;
+    }
+
+    private void run() {
+        List<Op> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Op first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+
+                // 第一条到达后最多再等flushIntervalMs，期间攒满则提前写入
+                batch.add(first);
+                int records = first.records;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (records < maxBatchRecords) {
+                    long wait = deadline - System.nanoTime();
+                    Op next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                    records += next.records;
+                }
+            } catch (InterruptedException e) {
+                // 不恢复中断标记，写完已取出的操作后退出
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        closeChannels();
+    }
+
+    private void commit(List<Op> batch) {
+        List<FileChannel> dirty = new ArrayList<>();
+        try {
+            for (Op op : batch) {
+                if (op.file == null)
+                    continue;
+
+                FileChannel channel = channel(op.file);
+                if (op.data == null) {
+                    channel.truncate(0);
+                } else {
+                    ByteBuffer buffer = ByteBuffer.wrap(op.data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                if (!dirty.contains(channel))
+                    dirty.add(channel);
+            }
+
+            if (durability != Durability.NONE) {
+                for (FileChannel channel : dirty) {
+                    channel.force(false);
+                }
+            }
+
+            for (Op op : batch) {
+                op.future.complete(null);
+            }
+        } catch (IOException e) {
+            NewboyWeidianAddon.INSTANCE.getLogger().error("写入抽卡日志失败", e);
+            // 出错的通道下次重新打开
+            closeChannels();
+            for (Op op : batch) {
+                op.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private FileChannel channel(File file) throws IOException {
+        FileChannel channel = channels.get(file);
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channels.put(file, channel);
+        }
+        return channel;
+    }
+
+    private void closeChannels() {
+        for (FileChannel channel : channels.values()) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        channels.clear();
+    }
+
+    /**
+     * 写完队列中剩余的操作后停止写入线程
+     */
+    public void close() {
+        running = false;
+        // 不能interrupt写入线程，否则会关闭正在写入的FileChannel；放入空操作将其唤醒
+        queue.add(new Op(null, null, 0));
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (INSTANCE == this) {
+            INSTANCE = null;
+        }
+    }
+}
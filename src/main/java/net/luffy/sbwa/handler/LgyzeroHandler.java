@@ -1,12 +1,13 @@
 package net.luffy.sbwa.handler;
 
-import cn.hutool.http.HttpRequest;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import net.luffy.sbwa.NewboyWeidianAddon;
 import net.luffy.sbwa.model.OwnedProxyGift;
+import net.luffy.sbwa.util.SharedHttpClient;
 
+import java.util.Collections;
 import java.util.List;
 
 public class LgyzeroHandler {
@@ -15,10 +16,8 @@ public class LgyzeroHandler {
     public JSONObject inquireCard(long buyerId) {
         try {
             String requestBody = String.format("{\"data\":{\"platform\":\"Weidian\",\"userID\":\"%d\"}}", buyerId);
-            String response = HttpRequest.post(API)
-                    .header("Content-Type", "application/json")
-                    .body(requestBody)
-                    .execute()
+            String response = SharedHttpClient.getInstance()
+                    .post(API, Collections.emptyMap(), requestBody, "application/json", SharedHttpClient.DEFAULT_TIMEOUT_MS)
                     .body();
             JSONObject object = JSONUtil.parseObj(response);
             if (object.getInt("status") == 0) {
@@ -1,6 +1,5 @@
 package net.luffy.sbwa.handler;
 
-import cn.hutool.json.JSONObject;
 import net.luffy.handler.WeidianSenderHandler;
 import net.luffy.model.WeidianItem;
 import net.luffy.model.WeidianItemMessage;
@@ -10,6 +9,7 @@ import net.luffy.sbwa.NewboyWeidianAddon;
 import net.luffy.sbwa.config.ConfigConfig;
 import net.luffy.sbwa.model.Gift2;
 import net.luffy.sbwa.model.Lottery2;
+import net.luffy.sbwa.model.PkDefinition;
 import net.luffy.sbwa.util.PKUtil;
 import net.mamoe.mirai.contact.Group;
 import net.mamoe.mirai.message.data.Message;
@@ -36,9 +36,9 @@ public class NewWeidianSenderHandler extends WeidianSenderHandler {
         WeidianItemMessage m = super.executeItemMessages(item, group, pickAmount);
         long feeAmount_me = m.amountTotal;
 
-        JSONObject[] pks = ConfigConfig.INSTANCE.getPkByGroupIdAndItemId(group.getId(), item.id);
-        for (JSONObject pk : pks) {
-            m.setMessage(m.getMessage().plus(PKUtil.getOutput(pk.getStr("pk_group", null), feeAmount_me, pk)));
+        PkDefinition[] pks = ConfigConfig.INSTANCE.getPkByGroupIdAndItemId(group.getId(), item.id);
+        for (PkDefinition pk : pks) {
+            m.setMessage(m.getMessage().plus(PKUtil.getOutput(pk.pkGroup, feeAmount_me, pk)));
         }
         return m;
     }
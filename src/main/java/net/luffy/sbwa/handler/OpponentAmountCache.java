@@ -0,0 +1,172 @@
+package net.luffy.sbwa.handler;
+
+import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.model.PKOpponent;
+import net.luffy.sbwa.model.PkDefinition;
+import net.luffy.sbwa.util.ExecutorRegistry;
+import net.luffy.sbwa.util.RequestPriority;
+import net.mamoe.mirai.utils.MiraiLogger;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PK对手金额缓存 - 需要访问微店的对手金额（cookie统计、库存估算）由后台线程定期刷新，
+ * 播报PK时只读取缓存值，不在消息处理线程上发起网络请求
+ * 只有从未加载过或超过陈旧上限的条目才会让调用方短暂等待一次加载
+ */
+public class OpponentAmountCache {
+
+    public static OpponentAmountCache INSTANCE;
+    private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
+
+    private final long refreshMs;
+    private final long maxStaleMs;
+    private final long loadWaitMs;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private static final String SCHEDULER = "PKOpponentRefresh";
+    private final ScheduledThreadPoolExecutor scheduler = ExecutorRegistry.getInstance().scheduled(SCHEDULER, 2);
+
+    //同一cookie与商品组合只查询一次，不同PK中的相同对手共用
+    private static final class Key {
+        final String cookie;
+        final long[] itemIds;
+        final long stock;
+
+        Key(PkDefinition.Opponent opponent) {
+            this.cookie = opponent.cookie;
+            this.itemIds = opponent.getItemIds();
+            //有cookie时金额与库存基准无关
+            this.stock = opponent.hasCookie() ? 0L : opponent.stock;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return stock == k.stock && Objects.equals(cookie, k.cookie) && Arrays.equals(itemIds, k.itemIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(cookie) * 31 + Arrays.hashCode(itemIds)) * 31 + Long.hashCode(stock);
+        }
+    }
+
+    private static final class Entry {
+        final PkDefinition.Opponent opponent;
+        volatile long amount;
+        volatile long updatedAt; // 0表示尚未加载
+        CompletableFuture<Void> inflight; // 由this保护
+
+        Entry(PkDefinition.Opponent opponent) {
+            this.opponent = opponent;
+        }
+    }
+
+    /**
+     * @param refreshMs  后台刷新间隔
+     * @param maxStaleMs 缓存值的陈旧上限，超过后读取时等待重新加载
+     * @param loadWaitMs 等待加载的最长时间，超时则返回旧值（从未加载过时为0）
+     */
+    public OpponentAmountCache(long refreshMs, long maxStaleMs, long loadWaitMs) {
+        this.refreshMs = Math.max(1000L, refreshMs);
+        this.maxStaleMs = Math.max(this.refreshMs, maxStaleMs);
+        this.loadWaitMs = Math.max(0L, loadWaitMs);
+        this.scheduler.scheduleWithFixedDelay(this::refreshDue, this.refreshMs, this.refreshMs, TimeUnit.MILLISECONDS);
+        INSTANCE = this;
+    }
+
+    //只有需要访问微店的对手才缓存
+    private static boolean needsFetch(PkDefinition.Opponent opponent) {
+        return opponent.hasCookie() || (opponent.hasStock && opponent.hasItemIds());
+    }
+
+    /**
+     * 读取对手金额
+     */
+    public long get(PkDefinition.Opponent opponent) {
+        if (!needsFetch(opponent))
+            return PKOpponent.fetchAmount(opponent);
+
+        Entry e = entries.computeIfAbsent(new Key(opponent), k -> new Entry(opponent));
+        long age = System.currentTimeMillis() - e.updatedAt;
+        if (e.updatedAt == 0 || age > maxStaleMs) {
+            try {
+                refresh(e).get(loadWaitMs, TimeUnit.MILLISECONDS);
+            } catch (Exception ex) {
+                logger.warning("等待PK对手金额加载超时，使用缓存值: " + e.amount);
+            }
+        } else if (age > refreshMs) {
+            refresh(e);
+        }
+        return e.amount;
+    }
+
+    /**
+     * 以当前有效的PK为准：新对手立即在后台加载，不再出现的对手移出缓存
+     */
+    public void track(List<PkDefinition> pks) {
+        Set<Key> live = new HashSet<>();
+        for (PkDefinition pk : pks) {
+            for (PkDefinition.Opponent opponent : pk.opponents) {
+                if (!needsFetch(opponent))
+                    continue;
+
+                Key k = new Key(opponent);
+                live.add(k);
+                Entry e = entries.computeIfAbsent(k, key -> new Entry(opponent));
+                if (e.updatedAt == 0)
+                    refresh(e);
+            }
+        }
+        entries.keySet().retainAll(live);
+    }
+
+    private void refreshDue() {
+        long now = System.currentTimeMillis();
+        for (Entry e : entries.values()) {
+            if (now - e.updatedAt >= refreshMs)
+                refresh(e);
+        }
+    }
+
+    //同一条目同时只有一次加载
+    private CompletableFuture<Void> refresh(Entry e) {
+        synchronized (e) {
+            if (e.inflight != null && !e.inflight.isDone())
+                return e.inflight;
+
+            e.inflight = CompletableFuture.runAsync(() -> {
+                //配置先于WeidianHandler加载，此时不能查询，留待下次刷新
+                if (WeidianHandler.INSTANCE == null)
+                    return;
+                RequestPriority.run(RequestPriority.PK_REFRESH, () -> e.amount = PKOpponent.fetchAmount(e.opponent));
+                e.updatedAt = System.currentTimeMillis();
+            }, scheduler).whenComplete((v, t) -> {
+                if (t != null)
+                    logger.error("刷新PK对手金额失败: " + e.opponent.name, t);
+            });
+            return e.inflight;
+        }
+    }
+
+    public void shutdown() {
+        // 刷新任务只读取金额，不必等待完成
+        scheduler.shutdownNow();
+        ExecutorRegistry.getInstance().unregister(SCHEDULER);
+        entries.clear();
+        if (INSTANCE == this) {
+            INSTANCE = null;
+        }
+    }
+}
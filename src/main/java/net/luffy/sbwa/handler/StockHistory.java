@@ -0,0 +1,313 @@
+package net.luffy.sbwa.handler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个商品的库存历史 - 固定容量的环形缓冲区，写满后覆盖最旧的记录
+ * 只在库存变化时保存新记录，未变化的采样只累加到最新记录上；长时间未变化时保存一条心跳记录，表明期间一直在监控
+ * 时间戳与总库存价值存于long[]；SKU库存按SKU序号编码为相对上一条记录的变化(序号, 差值)，最旧记录的完整库存单独保存
+ * 追加与淘汰均为O(1)；所有方法由this保护，需要跨多次调用保持一致时调用方对本对象加锁
+ * 下标i以最旧的记录为0，size()-1为最新的记录
+ */
+public class StockHistory {
+
+    /**
+     * 该记录中没有此SKU
+     */
+    public static final int MISSING = -1;
+
+    private static final int[] NO_CHANGE = new int[0];
+
+    private final long heartbeatMs;
+    private final long[] timestamps;
+    private final long[] totals;
+    // 每条记录代表的采样次数
+    private final int[] counts;
+    // 相对上一条记录的变化，依次为序号与差值；最旧记录的变化不使用
+    private final int[][] deltas;
+    private final Map<String, Integer> skuOrdinals = new HashMap<>();
+    // 最旧与最新记录的完整SKU库存
+    private int[] oldest = NO_CHANGE;
+    private int[] latest = NO_CHANGE;
+
+    private int head; // 下一条记录写入的位置
+    private int size;
+    private int samples;
+    private long lastSeen;
+
+    /**
+     * @param capacity    最多保存的记录数
+     * @param heartbeatMs 库存持续未变化时，每隔多久保存一条心跳记录
+     */
+    public StockHistory(int capacity, long heartbeatMs) {
+        int n = Math.max(2, capacity);
+        this.heartbeatMs = Math.max(1L, heartbeatMs);
+        this.timestamps = new long[n];
+        this.totals = new long[n];
+        this.counts = new int[n];
+        this.deltas = new int[n][];
+    }
+
+    /**
+     * 追加一次采样，已满时覆盖最旧的记录
+     * @return 是否保存为新记录（库存变化或心跳）；为false时只累加到最新记录
+     */
+    public synchronized boolean append(long timestamp, long totalStockValue, Map<String, Integer> stocks) {
+        return append(timestamp, totalStockValue, stocks, 1);
+    }
+
+    /**
+     * 追加代表count次采样的记录，用于从磁盘恢复
+     * @return 是否保存为新记录；为false时count累加到最新记录
+     */
+    public synchronized boolean append(long timestamp, long totalStockValue, Map<String, Integer> stocks, int count) {
+        count = Math.max(1, count);
+        for (String skuId : stocks.keySet()) {
+            skuOrdinals.computeIfAbsent(skuId, k -> skuOrdinals.size());
+        }
+        int[] row = new int[skuOrdinals.size()];
+        Arrays.fill(row, MISSING);
+        for (Map.Entry<String, Integer> e : stocks.entrySet()) {
+            row[skuOrdinals.get(e.getKey())] = e.getValue();
+        }
+        samples += count;
+        lastSeen = timestamp;
+
+        if (size == 0) {
+            store(timestamp, totalStockValue, NO_CHANGE, count);
+            oldest = row;
+            latest = row;
+            return true;
+        }
+
+        int[] delta = diff(latest, row);
+        int last = slot(size - 1);
+        if (delta.length == 0 && totals[last] == totalStockValue && timestamp - timestamps[last] < heartbeatMs) {
+            counts[last] += count;
+            return false;
+        }
+
+        if (size == timestamps.length) {
+            evictOldest();
+        }
+        store(timestamp, totalStockValue, delta, count);
+        latest = row;
+        return true;
+    }
+
+    private static int[] diff(int[] from, int[] to) {
+        int changed = 0;
+        for (int i = 0; i < to.length; i++) {
+            if (stockOf(from, i) != to[i]) {
+                changed++;
+            }
+        }
+        if (changed == 0) {
+            return NO_CHANGE;
+        }
+        int[] delta = new int[changed * 2];
+        int k = 0;
+        for (int i = 0; i < to.length; i++) {
+            int d = to[i] - stockOf(from, i);
+            if (d != 0) {
+                delta[k++] = i;
+                delta[k++] = d;
+            }
+        }
+        return delta;
+    }
+
+    private static int stockOf(int[] row, int ordinal) {
+        return ordinal < row.length ? row[ordinal] : MISSING;
+    }
+
+    /**
+     * 按序号扩展到当前的SKU数，新增的SKU为MISSING
+     */
+    private int[] widen(int[] row) {
+        if (row.length >= skuOrdinals.size()) {
+            return row;
+        }
+        int[] wide = Arrays.copyOf(row, skuOrdinals.size());
+        Arrays.fill(wide, row.length, wide.length, MISSING);
+        return wide;
+    }
+
+    private void store(long timestamp, long totalStockValue, int[] delta, int count) {
+        timestamps[head] = timestamp;
+        totals[head] = totalStockValue;
+        counts[head] = count;
+        deltas[head] = delta;
+        head = (head + 1) % timestamps.length;
+        size++;
+    }
+
+    /**
+     * 移除最旧的记录，第二条记录的变化并入最旧记录的完整库存
+     */
+    private void evictOldest() {
+        samples -= counts[slot(0)];
+        if (size > 1) {
+            int[] delta = deltas[slot(1)];
+            if (delta.length > 0) {
+                int[] row = Arrays.copyOf(widen(oldest), skuOrdinals.size());
+                for (int k = 0; k < delta.length; k += 2) {
+                    row[delta[k]] += delta[k + 1];
+                }
+                oldest = row;
+            }
+        } else {
+            oldest = NO_CHANGE;
+            latest = NO_CHANGE;
+        }
+        deltas[slot(0)] = null;
+        size--;
+    }
+
+    /**
+     * 从最旧的一端移除早于cutoffTime的记录
+     * @return 移除的条数
+     */
+    public synchronized int evictBefore(long cutoffTime) {
+        int removed = 0;
+        while (size > 0 && timestamps[slot(0)] < cutoffTime) {
+            evictOldest();
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * @return 保存的记录数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return 保存的记录所代表的采样次数
+     */
+    public synchronized int sampleCount() {
+        return samples;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return 最近一次采样的时间，最新记录的库存一直保持到此时
+     */
+    public synchronized long lastSeen() {
+        return lastSeen;
+    }
+
+    public synchronized long timestamp(int i) {
+        return timestamps[slot(i)];
+    }
+
+    public synchronized long total(int i) {
+        return totals[slot(i)];
+    }
+
+    /**
+     * @return 第i条记录代表的采样次数
+     */
+    public synchronized int count(int i) {
+        return counts[slot(i)];
+    }
+
+    /**
+     * @return 第i条记录中该SKU的库存，没有时为MISSING
+     */
+    public synchronized int skuStock(int i, String skuId) {
+        Integer ordinal = skuOrdinals.get(skuId);
+        if (ordinal == null) {
+            return MISSING;
+        }
+        slot(i);
+        int stock = stockOf(oldest, ordinal);
+        for (int j = 1; j <= i; j++) {
+            int[] delta = deltas[slot(j)];
+            for (int k = 0; k < delta.length; k += 2) {
+                if (delta[k] == ordinal) {
+                    stock += delta[k + 1];
+                }
+            }
+        }
+        return stock;
+    }
+
+    /**
+     * @return 第i条记录的完整SKU库存，按序号排列
+     */
+    public synchronized int[] skuStocks(int i) {
+        slot(i);
+        int[] row = Arrays.copyOf(widen(oldest), skuOrdinals.size());
+        for (int j = 1; j <= i; j++) {
+            int[] delta = deltas[slot(j)];
+            for (int k = 0; k < delta.length; k += 2) {
+                row[delta[k]] += delta[k + 1];
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @return 已出现过的SKU，按序号排列
+     */
+    public synchronized List<String> skuIds() {
+        String[] ids = new String[skuOrdinals.size()];
+        for (Map.Entry<String, Integer> e : skuOrdinals.entrySet()) {
+            ids[e.getValue()] = e.getKey();
+        }
+        return Arrays.asList(ids);
+    }
+
+    /**
+     * 查找表示time时刻库存的记录：不晚于time的最后一条记录，其库存保持到下一条记录
+     * 该记录与下一条记录间隔超过两个心跳周期时，说明期间没有监控，改用time之后的第一条记录
+     * @return 记录下标；没有记录时为0
+     */
+    public synchronized int indexAt(long time) {
+        // 记录按时间顺序追加，二分查找第一条晚于time的记录
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[slot(mid)] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0 || lo == size) {
+            return Math.max(0, lo - 1);
+        }
+        long gap = timestamps[slot(lo)] - timestamps[slot(lo - 1)];
+        return gap > 2 * heartbeatMs ? lo : lo - 1;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(deltas, null);
+        oldest = NO_CHANGE;
+        latest = NO_CHANGE;
+        head = 0;
+        size = 0;
+        samples = 0;
+    }
+
+    private int slot(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        int n = timestamps.length;
+        return (head - size + i + n) % n;
+    }
+}
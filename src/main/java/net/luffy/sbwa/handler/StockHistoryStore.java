@@ -0,0 +1,416 @@
+package net.luffy.sbwa.handler;
+
+import net.mamoe.mirai.utils.MiraiLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 库存历史的磁盘存储 - 每个商品一个只追加写入的段文件，重启后按需加载，避免销量估算失去历史数据
+ * 段文件格式：文件头(MAGIC, 版本)之后依次为SKU定义(类型1, 长度, UTF-8的skuId)、完整记录(类型2, 时间戳, 总库存价值, 上一条记录的采样次数, SKU数, 按SKU序号排列的库存)
+ * 与变化记录(类型3, 时间戳, 总库存价值, 上一条记录的采样次数, 变化数, 若干(序号, 相对上一条记录的差值))；只写入内存历史保存的记录，心跳记录的变化数为0
+ * 一条记录的采样次数在写入下一条记录时才确定，因此写在下一条记录中；段内最后一条记录加载时按1次计
+ * 版本1的段没有采样次数，每条记录按1次计
+ * SKU的序号为其定义在段内出现的顺序；加载时将整个段读入内存后关闭文件
+ * 段内记录数超过内存容量的若干倍时，用内存中的历史重写为新段并替换旧段
+ */
+public class StockHistoryStore {
+
+    private static final String SUFFIX = ".seg";
+    private static final int MAGIC = 0x53425748; // "SBWH"
+    private static final byte VERSION = 2;
+    // 记录中开始包含上一条记录采样次数的版本
+    private static final byte VERSION_COUNTS = 2;
+    private static final byte TYPE_SKU = 1;
+    private static final byte TYPE_SAMPLE = 2;
+    private static final byte TYPE_DELTA = 3;
+    // 段内采样数达到内存容量的该倍数时重写
+    private static final int COMPACT_FACTOR = 4;
+
+    /**
+     * 单个商品的段文件，写入与重写由段对象保护
+     */
+    private static final class Segment {
+        final File file;
+        // 段内已定义的SKU及其序号
+        final Map<String, Integer> ordinals = new HashMap<>();
+        int records;
+        // 段尾不完整或上次写入失败，下次写入时整体重写
+        boolean dirty;
+        // 上一条写入的完整库存，按段内序号排列
+        int[] last;
+
+        Segment(File file) {
+            this.file = file;
+        }
+    }
+
+    private final MiraiLogger logger;
+    private final File folder;
+    private final int capacity;
+    private final long heartbeatMs;
+    // 磁盘上有段文件但尚未加载的商品
+    private final Set<Long> unloaded = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * @param folder      段文件所在目录
+     * @param capacity    每个商品在内存中保留的记录数
+     * @param heartbeatMs 内存历史的心跳间隔
+     * @param logger      由StockMonitor传入，存储本身不依赖插件实例
+     */
+    public StockHistoryStore(File folder, int capacity, long heartbeatMs, MiraiLogger logger) {
+        this.logger = logger;
+        this.folder = folder;
+        this.capacity = capacity;
+        this.heartbeatMs = heartbeatMs;
+        if (!folder.exists())
+            folder.mkdirs();
+
+        // 启动时只列出文件名，段内容在首次访问该商品时才读取
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    unloaded.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        if (!unloaded.isEmpty()) {
+            logger.info("发现 " + unloaded.size() + " 个商品的库存历史，将在首次使用时加载");
+        }
+    }
+
+    /**
+     * @return 磁盘上是否有该商品尚未加载的历史
+     */
+    public boolean isUnloaded(long itemId) {
+        return unloaded.contains(itemId);
+    }
+
+    /**
+     * 调用方保存加载结果后调用，之后不再加载该商品
+     */
+    public void markLoaded(long itemId) {
+        unloaded.remove(itemId);
+    }
+
+    /**
+     * 读取商品的历史，会阻塞于磁盘I/O；调用方负责保证同一商品只加载一次并在之后调用markLoaded
+     * @param cutoffTime 早于该时间的采样不加载
+     * @return 没有未加载的段文件或没有未过期的采样时为null
+     */
+    public StockHistory load(long itemId, long cutoffTime) {
+        if (!unloaded.contains(itemId)) {
+            return null;
+        }
+
+        Segment segment = new Segment(fileOf(itemId));
+        StockHistory history = new StockHistory(capacity, heartbeatMs);
+        // 段只从头到尾读取一次，读入堆内存后文件即关闭，之后重写段时可以直接替换
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment.file.toPath()));
+            if (!replay(buffer, segment, history, cutoffTime)) {
+                logger.warning("商品 " + itemId + " 的库存历史段不完整，已读取 " + segment.records + " 条记录");
+                segment.dirty = true;
+            }
+        } catch (IOException e) {
+            logger.error("读取商品 " + itemId + " 的库存历史失败", e);
+            segment.dirty = true;
+        }
+        segments.putIfAbsent(itemId, segment);
+        logger.debug("加载商品 " + itemId + " 的库存历史 " + history.size() + " 条");
+        return history.isEmpty() ? null : history;
+    }
+
+    /**
+     * @return 是否完整读取了整个段
+     */
+    private static boolean replay(ByteBuffer buffer, Segment segment, StockHistory history, long cutoffTime) {
+        List<String> skuIds = new ArrayList<>();
+        int[] row = null;
+        // 采样次数要等读到下一条记录才知道，上一条未过期的记录先暂存
+        long pendingTimestamp = 0;
+        long pendingTotal = 0;
+        Map<String, Integer> pendingStocks = null;
+        try {
+            if (buffer.getInt() != MAGIC) {
+                return false;
+            }
+            byte version = buffer.get();
+            if (version < 1 || version > VERSION) {
+                return false;
+            }
+            // 旧版本的段不能接着追加新格式的记录，下次写入时按当前版本整体重写
+            if (version < VERSION) {
+                segment.dirty = true;
+            }
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == TYPE_SKU) {
+                    byte[] id = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(id);
+                    skuIds.add(new String(id, StandardCharsets.UTF_8));
+                    continue;
+                }
+                if (type != TYPE_SAMPLE && type != TYPE_DELTA) {
+                    return false;
+                }
+
+                long timestamp = buffer.getLong();
+                long total = buffer.getLong();
+                int previousCount = version >= VERSION_COUNTS ? buffer.getInt() : 1;
+                int n = buffer.getShort() & 0xFFFF;
+                if (type == TYPE_SAMPLE) {
+                    if (n > skuIds.size()) {
+                        return false;
+                    }
+                    row = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        row[i] = buffer.getInt();
+                    }
+                } else {
+                    // 变化记录之前必须有一条完整记录
+                    if (row == null) {
+                        return false;
+                    }
+                    row = widen(row, skuIds.size());
+                    for (int i = 0; i < n; i++) {
+                        int ordinal = buffer.getShort() & 0xFFFF;
+                        int delta = buffer.getInt();
+                        if (ordinal >= row.length) {
+                            return false;
+                        }
+                        row[ordinal] += delta;
+                    }
+                }
+                segment.records++;
+                if (pendingStocks != null) {
+                    history.append(pendingTimestamp, pendingTotal, pendingStocks, previousCount);
+                    pendingStocks = null;
+                }
+                if (timestamp >= cutoffTime) {
+                    pendingStocks = new HashMap<>();
+                    for (int i = 0; i < row.length; i++) {
+                        if (row[i] != StockHistory.MISSING) {
+                            pendingStocks.put(skuIds.get(i), row[i]);
+                        }
+                    }
+                    pendingTimestamp = timestamp;
+                    pendingTotal = total;
+                }
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        } finally {
+            if (pendingStocks != null) {
+                history.append(pendingTimestamp, pendingTotal, pendingStocks, 1);
+            }
+            for (int i = 0; i < skuIds.size(); i++) {
+                segment.ordinals.put(skuIds.get(i), i);
+            }
+            segment.last = row;
+        }
+    }
+
+    /**
+     * 复制并按序号扩展到n个SKU，新增的SKU为MISSING
+     */
+    private static int[] widen(int[] row, int n) {
+        int[] wide = Arrays.copyOf(row, Math.max(row.length, n));
+        Arrays.fill(wide, row.length, wide.length, StockHistory.MISSING);
+        return wide;
+    }
+
+    /**
+     * 追加一条内存历史保存的记录（库存变化或心跳），未变化的采样不写入
+     * @param history 该商品的内存历史，重写段时使用
+     */
+    public void append(long itemId, long timestamp, long totalStockValue, Map<String, Integer> stocks, StockHistory history) {
+        while (true) {
+            Segment segment = segments.computeIfAbsent(itemId, id -> new Segment(fileOf(id)));
+            synchronized (segment) {
+                // 取得段与加锁之间段可能已被删除，文件已不存在；重新取得新段，从文件头写起
+                if (segments.get(itemId) != segment) {
+                    continue;
+                }
+                try {
+                    if (segment.dirty || segment.records >= capacity * COMPACT_FACTOR) {
+                        rewrite(segment, history);
+                        return;
+                    }
+
+                    // 没有记录的段从头写入，避免接在残留的旧文件之后
+                    boolean fresh = segment.records == 0;
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    if (fresh) {
+                        segment.ordinals.clear();
+                        segment.last = null;
+                        out.writeInt(MAGIC);
+                        out.writeByte(VERSION);
+                    }
+                    for (String skuId : stocks.keySet()) {
+                        if (!segment.ordinals.containsKey(skuId)) {
+                            segment.ordinals.put(skuId, segment.ordinals.size());
+                            writeSku(out, skuId);
+                        }
+                    }
+                    int[] row = new int[segment.ordinals.size()];
+                    Arrays.fill(row, StockHistory.MISSING);
+                    for (Map.Entry<String, Integer> e : stocks.entrySet()) {
+                        row[segment.ordinals.get(e.getKey())] = e.getValue();
+                    }
+                    int previousCount = 0;
+                    if (!fresh) {
+                        synchronized (history) {
+                            // 本条记录已追加到内存历史，上一条记录的采样次数已确定
+                            previousCount = history.size() >= 2 ? history.count(history.size() - 2) : 0;
+                        }
+                    }
+                    writeRecord(out, segment, timestamp, totalStockValue, previousCount, row);
+
+                    Files.write(segment.file.toPath(), bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            fresh ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+                    segment.records++;
+                } catch (IOException e) {
+                    segment.dirty = true;
+                    logger.warning("写入商品 " + itemId + " 的库存历史失败: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private static void writeSku(DataOutputStream out, String skuId) throws IOException {
+        byte[] id = skuId.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(TYPE_SKU);
+        out.writeShort(id.length);
+        out.write(id);
+    }
+
+    /**
+     * 段内第一条记录写入完整库存，之后只写入与上一条记录不同的SKU
+     */
+    private static void writeRecord(DataOutputStream out, Segment segment, long timestamp, long total,
+                                    int previousCount, int[] row) throws IOException {
+        int[] last = segment.last;
+        if (last == null) {
+            out.writeByte(TYPE_SAMPLE);
+            out.writeLong(timestamp);
+            out.writeLong(total);
+            out.writeInt(previousCount);
+            out.writeShort(row.length);
+            for (int stock : row) {
+                out.writeInt(stock);
+            }
+        } else {
+            int changed = 0;
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] != (i < last.length ? last[i] : StockHistory.MISSING)) {
+                    changed++;
+                }
+            }
+            out.writeByte(TYPE_DELTA);
+            out.writeLong(timestamp);
+            out.writeLong(total);
+            out.writeInt(previousCount);
+            out.writeShort(changed);
+            for (int i = 0; i < row.length; i++) {
+                int delta = row[i] - (i < last.length ? last[i] : StockHistory.MISSING);
+                if (delta != 0) {
+                    out.writeShort(i);
+                    out.writeInt(delta);
+                }
+            }
+        }
+        segment.last = row;
+    }
+
+    /**
+     * 用内存中的历史重写段：先写入临时文件，再替换旧段
+     */
+    private void rewrite(Segment segment, StockHistory history) throws IOException {
+        segment.ordinals.clear();
+        segment.last = null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        int records;
+        synchronized (history) {
+            // 段内SKU的序号与内存历史一致
+            List<String> skuIds = history.skuIds();
+            for (String skuId : skuIds) {
+                segment.ordinals.put(skuId, segment.ordinals.size());
+                writeSku(out, skuId);
+            }
+            records = history.size();
+            for (int i = 0; i < records; i++) {
+                writeRecord(out, segment, history.timestamp(i), history.total(i),
+                        i > 0 ? history.count(i - 1) : 0, history.skuStocks(i));
+            }
+        }
+
+        File tmp = new File(segment.file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), bytes.toByteArray());
+        Files.move(tmp.toPath(), segment.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segment.records = records;
+        segment.dirty = false;
+    }
+
+    /**
+     * 删除商品的段文件，在内存中的历史全部过期后调用
+     */
+    public void delete(long itemId) {
+        unloaded.remove(itemId);
+        // 在段的锁内移出并删除文件，同时进行的写入要么在删除前完成，要么在加锁后发现段已移出而改用新段
+        Segment segment = segments.computeIfAbsent(itemId, id -> new Segment(fileOf(id)));
+        synchronized (segment) {
+            segments.remove(itemId, segment);
+            segment.file.delete();
+        }
+    }
+
+    /**
+     * 删除未加载且最后写入早于cutoffTime的段文件，其中的采样已全部过期
+     */
+    public void deleteExpired(long cutoffTime) {
+        for (Long itemId : unloaded) {
+            File file = fileOf(itemId);
+            if (file.lastModified() < cutoffTime && unloaded.remove(itemId)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return 尚未加载的商品数
+     */
+    public int getUnloadedCount() {
+        return unloaded.size();
+    }
+
+    private File fileOf(long itemId) {
+        return new File(folder, itemId + SUFFIX);
+    }
+}
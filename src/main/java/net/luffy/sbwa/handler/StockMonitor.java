@@ -1,21 +1,31 @@
 package net.luffy.sbwa.handler;
 
-import cn.hutool.json.JSONArray;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.config.ConfigConfig;
+import net.luffy.sbwa.util.Common;
+import net.luffy.sbwa.util.ExecutorRegistry;
+import net.luffy.sbwa.util.IoExecutor;
+import net.luffy.sbwa.util.RequestPriority;
+import net.luffy.sbwa.util.TimingWheel;
 import net.mamoe.mirai.utils.MiraiLogger;
 
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 
 /**
  * 库存监控器 - 通过监控库存变化来估算销量
@@ -24,34 +34,88 @@ public class StockMonitor {
     
     private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
     
-    // 优化的调度线程池
-    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
-        3, // 核心线程数
-        r -> new Thread(r, "StockMonitor-" + System.currentTimeMillis()),
-        new ThreadPoolExecutor.CallerRunsPolicy()
-    );
+    // 单线程推进时间轮，到期的商品分批交给查询执行器；查询执行器的并发数即全局查询并发上限
+    private static final String SCHEDULER = "StockMonitor";
+    private static final String FETCH_EXECUTOR = "StockMonitorFetch";
+    private static final int WHEEL_SIZE = 512;
+    private final ScheduledThreadPoolExecutor scheduler = ExecutorRegistry.getInstance().scheduled(SCHEDULER, 1);
+    private final IoExecutor fetchExecutor;
+    private final TimingWheel<Poller> wheel;
+    private final int batchSize;
     
-    // 最大历史记录数（每个商品）
+    // 最大历史记录数（每个商品），只有库存变化与心跳才占用记录
     private static final int MAX_HISTORY_SIZE = 50;
-    // 数据保留时间（24小时）
-    private static final long DATA_RETENTION_MS = 24 * 60 * 60 * 1000L;
+    // 清理过期数据的间隔（5分钟）
+    private static final long CLEANUP_INTERVAL_MS = 5 * 60 * 1000L;
+    // 数据保留时间与心跳间隔
+    private final long retentionMs;
+    private final long heartbeatMs;
     
-    // 存储商品的历史库存数据
-    private final Map<Long, List<StockRecord>> stockHistory = new ConcurrentHashMap<>();
+    // 存储商品的历史库存数据，每个商品一个环形缓冲区
+    private final Map<Long, StockHistory> stockHistory = new ConcurrentHashMap<>();
+    
+    // 历史数据的磁盘存储，未开启时为null
+    private final StockHistoryStore store;
+    // 正在从磁盘加载的商品，同一商品的并发访问等待同一次加载
+    private final Map<Long, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    // 等待其他线程加载历史的最长时间
+    private static final long LOAD_WAIT_MS = 5000L;
     
     // 存储商品的SKU详细信息
     private final Map<Long, Map<String, SkuInfo>> skuInfoCache = new ConcurrentHashMap<>();
     
-    public static class StockRecord {
-        public final long timestamp;
-        public final long totalStockValue; // 总库存价值
-        public final Map<String, Integer> skuStocks; // 各SKU库存数量
+    // 正在监控的商品，每个商品只有一个定时任务；由this保护
+    private final Map<Long, Poller> pollers = new HashMap<>();
+    
+    /**
+     * 单个商品的定时查询，由手动启动或依赖它的PK持有
+     */
+    private static final class Poller {
+        final long itemId;
+        final Set<String> pkIds = new HashSet<>();
+        boolean manual;
+        int intervalMinutes;
+        TimingWheel.Timeout<Poller> timeout;
+        volatile long lastRunAt;
+        // 上一批查询尚未完成时跳过本次，故障期间不堆积任务
+        volatile boolean inflight;
         
-        public StockRecord(long timestamp, long totalStockValue, Map<String, Integer> skuStocks) {
-            this.timestamp = timestamp;
-            this.totalStockValue = totalStockValue;
-            this.skuStocks = new ConcurrentHashMap<>(skuStocks);
+        Poller(long itemId) {
+            this.itemId = itemId;
         }
+        
+        boolean isHeld() {
+            return manual || !pkIds.isEmpty();
+        }
+    }
+    
+    public StockMonitor() {
+        ConfigConfig config = ConfigConfig.INSTANCE;
+        long tickMs = config == null ? 1000L : config.stock_monitor_tick_ms;
+        int concurrency = Math.max(1, config == null ? 4 : config.stock_monitor_fetch_concurrency);
+        this.batchSize = Math.max(1, config == null ? 20 : config.stock_monitor_batch_size);
+        this.retentionMs = Math.max(1, config == null ? 72 : config.stock_history_retention_hours) * 60 * 60 * 1000L;
+        this.heartbeatMs = Math.max(1, config == null ? 60 : config.stock_history_heartbeat_minutes) * 60 * 1000L;
+        this.fetchExecutor = ExecutorRegistry.getInstance().io(FETCH_EXECUTOR, concurrency, concurrency, 10000, concurrency);
+        this.wheel = new TimingWheel<>(WHEEL_SIZE, tickMs, this::onDue);
+        this.store = config != null && config.stock_history_persist && Common.I != null
+            ? new StockHistoryStore(new File(Common.I.dataFolder, "stock_history"), MAX_HISTORY_SIZE, heartbeatMs, logger)
+            : null;
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                wheel.tick();
+            } catch (Exception e) {
+                logger.error("推进库存监控时间轮时发生错误", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        // 定期清理过期数据，包括已停止监控的商品的历史与磁盘上的段文件
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                cleanExpiredData();
+            } catch (Exception e) {
+                logger.error("清理过期库存历史时发生错误", e);
+            }
+        }, CLEANUP_INTERVAL_MS, CLEANUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
     
     public static class SkuInfo {
@@ -67,20 +131,159 @@ public class StockMonitor {
     }
     
     /**
-     * 开始监控指定商品的库存变化
+     * 手动开始监控指定商品的库存变化，已在监控时不会重复创建定时任务
      * @param itemId 商品ID
      * @param intervalMinutes 监控间隔（分钟）
      */
-    public void startMonitoring(long itemId, int intervalMinutes) {
-        logger.info("开始监控商品 " + itemId + " 的库存变化，间隔 " + intervalMinutes + " 分钟");
+    public synchronized void startMonitoring(long itemId, int intervalMinutes) {
+        acquire(itemId, intervalMinutes).manual = true;
+    }
+    
+    /**
+     * 为PK监控商品，同一商品被多个PK依赖时共用一个定时任务
+     * @param pkId 依赖此商品的PK
+     */
+    public synchronized void startMonitoring(long itemId, int intervalMinutes, String pkId) {
+        acquire(itemId, intervalMinutes).pkIds.add(pkId);
+    }
+    
+    //取得商品的定时任务，不存在时创建；已存在时采用较短的间隔
+    private Poller acquire(long itemId, int intervalMinutes) {
+        int interval = Math.max(1, intervalMinutes);
+        Poller poller = pollers.get(itemId);
+        if (poller == null) {
+            logger.info("开始监控商品 " + itemId + " 的库存变化，间隔 " + interval + " 分钟");
+            poller = new Poller(itemId);
+            pollers.put(itemId, poller);
+            preload(itemId);
+            schedule(poller, interval, 0);
+        } else if (interval < poller.intervalMinutes) {
+            reschedule(poller, interval);
+        }
+        return poller;
+    }
+    
+    /**
+     * 停止监控指定商品，无论有多少PK依赖它
+     * @return 是否正在监控
+     */
+    public synchronized boolean stopMonitoring(long itemId) {
+        Poller poller = pollers.remove(itemId);
+        if (poller == null) {
+            return false;
+        }
+        poller.timeout.cancel();
+        logger.info("停止监控商品 " + itemId + " 的库存变化");
+        return true;
+    }
+    
+    /**
+     * 修改监控间隔
+     * @return 是否正在监控
+     */
+    public synchronized boolean setInterval(long itemId, int intervalMinutes) {
+        Poller poller = pollers.get(itemId);
+        if (poller == null) {
+            return false;
+        }
+        int interval = Math.max(1, intervalMinutes);
+        if (interval != poller.intervalMinutes) {
+            reschedule(poller, interval);
+        }
+        return true;
+    }
+    
+    /**
+     * 释放PK对其商品的依赖，不再被任何PK或手动监控持有的商品停止监控
+     */
+    public synchronized void releasePk(String pkId) {
+        release(poller -> poller.pkIds.remove(pkId));
+    }
+    
+    /**
+     * 以现存的PK为准，释放已删除的PK对商品的依赖
+     * @param pkIds 现存的全部PK id
+     */
+    public synchronized void retainPks(Collection<String> pkIds) {
+        release(poller -> poller.pkIds.retainAll(pkIds));
+    }
+    
+    //对每个商品执行释放操作，释放后不再被持有的商品停止监控
+    private void release(Predicate<Poller> releaser) {
+        Iterator<Poller> it = pollers.values().iterator();
+        while (it.hasNext()) {
+            Poller poller = it.next();
+            if (releaser.test(poller) && !poller.isHeld()) {
+                it.remove();
+                poller.timeout.cancel();
+                logger.info("依赖商品 " + poller.itemId + " 的PK均已删除，停止监控");
+            }
+        }
+    }
+    
+    public synchronized boolean isMonitoring(long itemId) {
+        return pollers.containsKey(itemId);
+    }
+    
+    /**
+     * @return 正在监控的商品id，按升序排列
+     */
+    public synchronized Set<Long> getMonitoredItems() {
+        return new TreeSet<>(pollers.keySet());
+    }
+    
+    private void reschedule(Poller poller, int intervalMinutes) {
+        poller.timeout.cancel();
+        // 按上次查询时间计算下次查询，避免修改间隔时立即重复查询
+        long sinceLast = System.currentTimeMillis() - poller.lastRunAt;
+        long delayMs = Math.max(0L, TimeUnit.MINUTES.toMillis(intervalMinutes) - sinceLast);
+        logger.info("商品 " + poller.itemId + " 的监控间隔改为 " + intervalMinutes + " 分钟");
+        schedule(poller, intervalMinutes, delayMs);
+    }
+    
+    private void schedule(Poller poller, int intervalMinutes, long initialDelayMs) {
+        poller.intervalMinutes = intervalMinutes;
+        poller.timeout = wheel.schedule(poller, initialDelayMs);
+    }
+    
+    /**
+     * 时间轮线程上调用：排定下次查询，并把本tick到期的商品分批提交
+     */
+    private void onDue(List<TimingWheel.Timeout<Poller>> due) {
+        List<Poller> fetch = new ArrayList<>(due.size());
+        synchronized (this) {
+            for (TimingWheel.Timeout<Poller> timeout : due) {
+                Poller poller = timeout.task;
+                // 已停止或已修改间隔重新排定的不再处理
+                if (pollers.get(poller.itemId) != poller || poller.timeout != timeout) {
+                    continue;
+                }
+                poller.timeout = wheel.schedule(poller, TimeUnit.MINUTES.toMillis(poller.intervalMinutes));
+                if (!poller.inflight) {
+                    poller.inflight = true;
+                    fetch.add(poller);
+                }
+            }
+        }
         
-        scheduler.scheduleAtFixedRate(() -> {
+        for (int i = 0; i < fetch.size(); i += batchSize) {
+            List<Poller> batch = fetch.subList(i, Math.min(fetch.size(), i + batchSize));
+            fetchExecutor.execute(() -> fetchBatch(batch));
+        }
+    }
+    
+    private void fetchBatch(List<Poller> batch) {
+        for (Poller poller : batch) {
+            poller.lastRunAt = System.currentTimeMillis();
             try {
-                recordCurrentStock(itemId);
+                // 定时监控优先级最低，限流时让位于交互命令和PK刷新
+                RequestPriority.run(RequestPriority.BACKGROUND, () -> recordCurrentStock(poller.itemId));
             } catch (Exception e) {
-                logger.error("监控商品 " + itemId + " 库存时发生错误", e);
+                logger.error("监控商品 " + poller.itemId + " 库存时发生错误", e);
+            } finally {
+                poller.inflight = false;
             }
-        }, 0, intervalMinutes, TimeUnit.MINUTES);
+        }
     }
     
     /**
@@ -88,70 +291,104 @@ public class StockMonitor {
      */
     private void recordCurrentStock(long itemId) {
         try {
-            String response = WeidianHandler.INSTANCE.httpGet(
-                String.format(WeidianHandler.APIStock, itemId)
-            );
-            
-            JSONObject result = JSONUtil.parseObj(response);
-            if (result == null || result.getJSONObject("status").getInt("code") != 0) {
+            // 经WeidianHandler的合并查询，与PK创建、刷新等对同一商品的并发查询共用一次请求，结果同时写入库存缓存
+            // 熔断、重试与限流排队超时均在其中处理，失败时跳过本次采样，不记录不可靠的数据
+            WeidianHandler.CachedStockResult result = WeidianHandler.INSTANCE.getFreshStockResult(itemId);
+            if (!result.isOk() || result.skuStocks == null) {
+                logger.debug("商品 " + itemId + " 的库存查询结果为 " + result.status + "，跳过本次采样");
                 return;
             }
             
-            JSONObject data = result.getJSONObject("result");
-            long totalStockValue = 0;
-            Map<String, Integer> currentSkuStocks = new ConcurrentHashMap<>();
-            Map<String, SkuInfo> currentSkuInfos = new ConcurrentHashMap<>();
-            
-            if (data.containsKey("skuInfos")) {
-                JSONArray skuInfos = data.getJSONArray("skuInfos");
-                for (Object obj : skuInfos) {
-                    JSONObject skuData = JSONUtil.parseObj(obj).getJSONObject("skuInfo");
-                    String skuId = skuData.getStr("skuId", "");
-                    int price = skuData.getInt("originalPrice", 0);
-                    int stock = skuData.getInt("stock", 0);
-                    String skuName = skuData.getStr("skuName", "");
-                    
-                    totalStockValue += (long) price * stock;
-                    currentSkuStocks.put(skuId, stock);
-                    currentSkuInfos.put(skuId, new SkuInfo(skuId, price, skuName));
-                }
-            } else {
-                // 单SKU商品
-                int price = data.getInt("itemDiscountHighPrice", 0);
-                int stock = data.getInt("itemStock", 0);
-                totalStockValue = (long) price * stock;
-                currentSkuStocks.put("default", stock);
-                currentSkuInfos.put("default", new SkuInfo("default", price, "默认规格"));
-            }
-            
             // 更新SKU信息缓存
-            skuInfoCache.put(itemId, currentSkuInfos);
+            skuInfoCache.put(itemId, result.skuInfos);
             
-            // 记录历史数据
-            StockRecord record = new StockRecord(
-                System.currentTimeMillis(),
-                totalStockValue,
-                currentSkuStocks
-            );
-            
-            stockHistory.computeIfAbsent(itemId, k -> new ArrayList<>()).add(record);
-            
-            // 保持历史记录在合理范围内
-            List<StockRecord> history = stockHistory.get(itemId);
-            cleanHistoryData(history);
-            
-            // 定期清理过期数据
-            if (System.currentTimeMillis() % (5 * 60 * 1000) == 0) { // 每5分钟检查一次
-                cleanExpiredData();
+            // 记录历史数据，在compute中追加，避免与清理过期数据时移除条目交错
+            // 库存未变化时只累加到最新记录，不写入磁盘；缓存中已记录过的结果不重复记录
+            long sampledAt = result.timestamp;
+            boolean[] recorded = new boolean[1];
+            if (!ensureLoaded(itemId)) {
+                // 加载未完成时追加会新建历史，随后加载的结果将被丢弃
+                logger.debug("商品 " + itemId + " 的库存历史仍在加载，跳过本次采样");
+                return;
+            }
+            StockHistory updated = stockHistory.compute(itemId, (k, history) -> {
+                if (history == null) {
+                    history = new StockHistory(MAX_HISTORY_SIZE, heartbeatMs);
+                }
+                if (history.isEmpty() || sampledAt > history.lastSeen()) {
+                    recorded[0] = history.append(sampledAt, result.stock, result.skuStocks);
+                }
+                // 保持历史记录在合理范围内，超过容量的记录已在追加时覆盖
+                cleanHistoryData(history);
+                return history;
+            });
+            if (store != null && recorded[0]) {
+                store.append(itemId, sampledAt, result.stock, result.skuStocks, updated);
             }
             
-            logger.debug("记录商品 " + itemId + " 库存数据，总价值: " + totalStockValue);
+            logger.debug("记录商品 " + itemId + " 库存数据，总价值: " + result.stock);
             
         } catch (Exception e) {
             logger.error("记录商品 " + itemId + " 库存数据时发生错误", e);
         }
     }
     
+    /**
+     * 获取商品的历史，磁盘上的历史尚未加载时等待或自行加载
+     * @return 没有历史或等待加载超时时为null
+     */
+    private StockHistory getHistory(long itemId) {
+        ensureLoaded(itemId);
+        return stockHistory.get(itemId);
+    }
+    
+    /**
+     * 开始监控时在后台加载磁盘上的历史，首次采样或估算时通常已加载完毕
+     */
+    private void preload(long itemId) {
+        if (store != null && store.isUnloaded(itemId)) {
+            fetchExecutor.execute(() -> ensureLoaded(itemId));
+        }
+    }
+    
+    /**
+     * 确保商品的历史已从磁盘加载；通常已由preload在后台完成，未监控的商品或预加载尚未执行时才在调用线程上读取
+     * 读取在map操作之外进行，不在持有map的锁时阻塞于磁盘I/O
+     * @return 加载是否已完成；等待其他线程加载超时时为false
+     */
+    private boolean ensureLoaded(long itemId) {
+        if (store == null || !store.isUnloaded(itemId)) {
+            return true;
+        }
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> pending = loading.putIfAbsent(itemId, mine);
+        if (pending != null) {
+            try {
+                pending.get(LOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException | TimeoutException e) {
+                return false;
+            }
+        }
+        try {
+            // 上一次加载可能刚刚完成
+            if (store.isUnloaded(itemId)) {
+                StockHistory loaded = store.load(itemId, System.currentTimeMillis() - retentionMs);
+                if (loaded != null) {
+                    stockHistory.putIfAbsent(itemId, loaded);
+                }
+                store.markLoaded(itemId);
+            }
+        } finally {
+            loading.remove(itemId, mine);
+            mine.complete(null);
+        }
+        return true;
+    }
+    
     /**
      * 基于库存变化估算销量
      * @param itemId 商品ID
@@ -159,73 +396,59 @@ public class StockMonitor {
      * @return 估算的销量金额（分为单位）
      */
     public long estimateSalesFromStockChange(long itemId, long timeWindowMs) {
-        List<StockRecord> history = stockHistory.get(itemId);
-        if (history == null || history.size() < 2) {
+        StockHistory history = getHistory(itemId);
+        if (history == null) {
             return 0L;
         }
         
         long currentTime = System.currentTimeMillis();
         long startTime = currentTime - timeWindowMs;
         
-        // 找到时间窗口内的第一条和最后一条记录
-        StockRecord firstRecord = null;
-        StockRecord lastRecord = null;
-        
-        for (StockRecord record : history) {
-            if (record.timestamp >= startTime) {
-                if (firstRecord == null) {
-                    firstRecord = record;
-                }
-                lastRecord = record;
+        synchronized (history) {
+            // 找到窗口开始时与最新的记录，未变化的采样不保存记录，窗口开始时的库存为此前最后一条记录
+            int first = history.indexAt(startTime);
+            int last = history.size() - 1;
+            if (first >= last) {
+                return 0L;
             }
+            
+            // 计算总库存价值的变化
+            long stockValueDecrease = history.total(first) - history.total(last);
+            
+            // 库存价值减少即为销量
+            return Math.max(0L, stockValueDecrease);
         }
-        
-        if (firstRecord == null || lastRecord == null || firstRecord == lastRecord) {
-            return 0L;
-        }
-        
-        // 计算总库存价值的变化
-        long stockValueDecrease = firstRecord.totalStockValue - lastRecord.totalStockValue;
-        
-        // 库存价值减少即为销量
-        return Math.max(0L, stockValueDecrease);
     }
     
     /**
      * 清理单个商品的历史数据
      */
-    private void cleanHistoryData(List<StockRecord> history) {
+    private void cleanHistoryData(StockHistory history) {
         if (history == null) return;
         
-        // 按时间排序并移除过期数据
-        long cutoffTime = System.currentTimeMillis() - DATA_RETENTION_MS;
-        history.removeIf(record -> record.timestamp < cutoffTime);
-        
-        // 限制记录数量
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
-        }
+        // 记录按时间顺序保存，从最旧的一端移除过期数据
+        history.evictBefore(System.currentTimeMillis() - retentionMs);
     }
     
     /**
      * 清理所有过期数据
      */
     public void cleanExpiredData() {
-        long cutoffTime = System.currentTimeMillis() - DATA_RETENTION_MS;
+        long cutoffTime = System.currentTimeMillis() - retentionMs;
         
-        Iterator<Map.Entry<Long, List<StockRecord>>> iterator = stockHistory.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<Long, List<StockRecord>> entry = iterator.next();
-            List<StockRecord> history = entry.getValue();
-            
-            // 移除过期记录
-            history.removeIf(record -> record.timestamp < cutoffTime);
-            
-            // 如果没有有效数据，移除整个条目
-            if (history.isEmpty()) {
-                iterator.remove();
+        for (Long itemId : stockHistory.keySet()) {
+            // 移除过期记录，如果没有有效数据，移除整个条目
+            StockHistory remaining = stockHistory.computeIfPresent(itemId, (k, history) -> {
+                history.evictBefore(cutoffTime);
+                return history.isEmpty() ? null : history;
+            });
+            if (remaining == null && store != null) {
+                store.delete(itemId);
             }
         }
+        if (store != null) {
+            store.deleteExpired(cutoffTime);
+        }
         
         // 清理SKU信息缓存中的无用数据
         skuInfoCache.entrySet().removeIf(entry -> !stockHistory.containsKey(entry.getKey()));
@@ -234,43 +457,35 @@ public class StockMonitor {
     }
     
     /**
-     * 获取指定商品的历史记录数量
+     * 获取指定商品的历史采样次数（含未变化而未单独保存的采样）
      */
     public int getHistorySize(long itemId) {
-        List<StockRecord> history = stockHistory.get(itemId);
-        return history != null ? history.size() : 0;
+        StockHistory history = getHistory(itemId);
+        return history != null ? history.sampleCount() : 0;
     }
     
     /**
      * 获取销售速率（每小时）
      */
     public long getSalesRate(long itemId) {
-        List<StockRecord> history = stockHistory.get(itemId);
-        if (history == null || history.size() < 2) {
+        StockHistory history = getHistory(itemId);
+        if (history == null) {
             return 0L;
         }
         
         // 计算最近1小时的销售速率
         long oneHourAgo = System.currentTimeMillis() - 60 * 60 * 1000L;
         
-        StockRecord recentRecord = null;
-        StockRecord oldRecord = null;
-        
-        for (int i = history.size() - 1; i >= 0; i--) {
-            StockRecord record = history.get(i);
-            if (record.timestamp >= oneHourAgo) {
-                if (recentRecord == null) {
-                    recentRecord = record;
-                }
-                oldRecord = record;
-            } else {
-                break;
+        synchronized (history) {
+            int old = history.indexAt(oneHourAgo);
+            int recent = history.size() - 1;
+            if (old >= recent) {
+                return 0L;
             }
-        }
-        
-        if (recentRecord != null && oldRecord != null && recentRecord != oldRecord) {
-            long timeDiff = recentRecord.timestamp - oldRecord.timestamp;
-            long stockDiff = oldRecord.totalStockValue - recentRecord.totalStockValue;
+            
+            // 最新记录的库存一直保持到最近一次采样
+            long timeDiff = history.lastSeen() - Math.max(oneHourAgo, history.timestamp(old));
+            long stockDiff = history.total(old) - history.total(recent);
             
             if (timeDiff > 0 && stockDiff > 0) {
                 // 转换为每小时的销售额
@@ -287,11 +502,17 @@ public class StockMonitor {
     public String getMonitoringStats() {
         int totalItems = stockHistory.size();
         int totalRecords = stockHistory.values().stream()
-            .mapToInt(List::size)
+            .mapToInt(StockHistory::size)
             .sum();
         
-        return String.format("库存监控统计: 监控商品=%d, 历史记录=%d, 线程池活跃=%d",
-            totalItems, totalRecords, scheduler.getActiveCount());
+        int polling;
+        synchronized (this) {
+            polling = pollers.size();
+        }
+        
+        return String.format("库存监控统计: 监控商品=%d, 定时查询=%d, 历史记录=%d, 磁盘未加载=%s, 时间轮待执行=%d (tick=%dms), %s",
+            totalItems, polling, totalRecords, store == null ? "未开启" : String.valueOf(store.getUnloadedCount()),
+            wheel.size(), wheel.getTickMs(), fetchExecutor.getStats());
     }
     
     /**
@@ -302,42 +523,34 @@ public class StockMonitor {
      */
     public Map<String, Long> getDetailedSkuSales(long itemId, long timeWindowMs) {
         Map<String, Long> skuSales = new ConcurrentHashMap<>();
-        List<StockRecord> history = stockHistory.get(itemId);
+        StockHistory history = getHistory(itemId);
         Map<String, SkuInfo> skuInfos = skuInfoCache.get(itemId);
         
-        if (history == null || history.size() < 2 || skuInfos == null) {
+        if (history == null || skuInfos == null) {
             return skuSales;
         }
         
         long currentTime = System.currentTimeMillis();
         long startTime = currentTime - timeWindowMs;
         
-        StockRecord firstRecord = null;
-        StockRecord lastRecord = null;
-        
-        for (StockRecord record : history) {
-            if (record.timestamp >= startTime) {
-                if (firstRecord == null) {
-                    firstRecord = record;
-                }
-                lastRecord = record;
+        synchronized (history) {
+            int first = history.indexAt(startTime);
+            int last = history.size() - 1;
+            if (first >= last) {
+                return skuSales;
             }
-        }
-        
-        if (firstRecord == null || lastRecord == null) {
-            return skuSales;
-        }
-        
-        // 计算每个SKU的销量
-        for (String skuId : skuInfos.keySet()) {
-            SkuInfo skuInfo = skuInfos.get(skuId);
-            Integer firstStock = firstRecord.skuStocks.get(skuId);
-            Integer lastStock = lastRecord.skuStocks.get(skuId);
             
-            if (firstStock != null && lastStock != null && firstStock > lastStock) {
-                int soldQuantity = firstStock - lastStock;
-                long soldValue = (long) soldQuantity * skuInfo.price;
-                skuSales.put(skuId, soldValue);
+            // 计算每个SKU的销量
+            for (String skuId : skuInfos.keySet()) {
+                SkuInfo skuInfo = skuInfos.get(skuId);
+                int firstStock = history.skuStock(first, skuId);
+                int lastStock = history.skuStock(last, skuId);
+                
+                if (firstStock != StockHistory.MISSING && lastStock != StockHistory.MISSING && firstStock > lastStock) {
+                    int soldQuantity = firstStock - lastStock;
+                    long soldValue = (long) soldQuantity * skuInfo.price;
+                    skuSales.put(skuId, soldValue);
+                }
             }
         }
         
@@ -350,23 +563,17 @@ public class StockMonitor {
     public void shutdown() {
         logger.info("正在停止库存监控服务...");
         
+        // 先关闭时间轮与查询执行器，避免清理后又写入数据
+        ExecutorRegistry.shutdown(SCHEDULER, scheduler, 30000);
+        ExecutorRegistry.shutdown(FETCH_EXECUTOR, fetchExecutor, 30000);
+        
         // 清理所有数据
+        synchronized (this) {
+            pollers.clear();
+        }
         stockHistory.clear();
         skuInfoCache.clear();
         
-        // 关闭调度器
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-                logger.warning("强制关闭库存监控调度器");
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
-            logger.error("关闭库存监控调度器时被中断", e);
-        }
-        
         logger.info("库存监控服务已停止");
     }
 }
\ No newline at end of file
@@ -1,18 +1,24 @@
 package net.luffy.sbwa.handler;
 
-import cn.hutool.http.HttpRequest;
-import cn.hutool.http.HttpResponse;
 import cn.hutool.json.JSONObject;
 import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.config.ConfigConfig;
+import net.luffy.sbwa.util.BoundedCache;
+import net.luffy.sbwa.util.CircuitBreaker;
+import net.luffy.sbwa.util.ExecutorRegistry;
+import net.luffy.sbwa.util.IoExecutor;
+import net.luffy.sbwa.util.QueueTimeoutException;
+import net.luffy.sbwa.util.RequestPriority;
+import net.luffy.sbwa.util.RetryPolicy;
+import net.luffy.sbwa.util.SharedHttpClient;
 import net.mamoe.mirai.utils.MiraiLogger;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.Map;
 
 /**
@@ -23,18 +29,33 @@ public class WebSalesExtractor {
     private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
     
     // HTTP请求线程池
-    private static final ThreadPoolExecutor httpExecutor = new ThreadPoolExecutor(
-        4, 8, 60L, TimeUnit.SECONDS,
-        new LinkedBlockingQueue<>(100),
-        r -> new Thread(r, "WebSalesExtractor-" + System.currentTimeMillis()),
-        new ThreadPoolExecutor.CallerRunsPolicy()
-    );
+    private static final String HTTP_EXECUTOR = "WebSalesExtractor";
+    private final IoExecutor httpExecutor = ExecutorRegistry.getInstance().io(HTTP_EXECUTOR, 4, 8, 100,
+        ConfigConfig.INSTANCE == null ? 16 : ConfigConfig.INSTANCE.executor_web_sales_max_concurrency);
     
-    // 销量数据缓存
-    private final Map<Long, WebSalesData> salesCache = new ConcurrentHashMap<>();
+    // 商品页面请求头
+    private static final Map<String, String> PAGE_HEADERS = Map.of(
+        "User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36",
+        "Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8",
+        "Accept-Language", "zh-CN,zh;q=0.8,zh-TW;q=0.7,zh-HK;q=0.5,en-US;q=0.3,en;q=0.2",
+        "Accept-Encoding", "gzip, deflate"
+    );
     
     // 缓存有效期（5分钟）
     private static final long CACHE_VALIDITY_MS = 5 * 60 * 1000;
+    // 过期的有效数据在页面无法访问时仍可返回的时间（1小时）
+    private static final long LAST_KNOWN_MS = 60 * 60 * 1000;
+    
+    // 商品页面的熔断器名
+    private static final String PAGE_ENDPOINT = "weidian.com/item.html";
+    
+    // 页面请求的重试策略
+    private final RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+    
+    // 销量数据缓存
+    private final BoundedCache<Long, WebSalesData> salesCache = new BoundedCache<>("销量缓存",
+        ConfigConfig.INSTANCE == null ? 2000 : ConfigConfig.INSTANCE.web_sales_cache_max_entries,
+        LAST_KNOWN_MS);
     
     /**
      * 网页销量数据
@@ -82,23 +103,42 @@ public class WebSalesExtractor {
             return cached;
         }
         
+        // 页面熔断期间不发起请求，返回最近一次的有效数据
+        CircuitBreaker breaker = CircuitBreaker.of(PAGE_ENDPOINT);
+        if (!breaker.allowRequest()) {
+            return lastKnownOr(cached, new WebSalesData(itemId, "商品页面暂时无法访问"));
+        }
+        
         try {
             String url = "https://weidian.com/item.html?itemID=" + itemId;
             
             // 发送HTTP请求获取页面内容
-            HttpResponse response = HttpRequest.get(url)
-                    .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36")
-                    .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8")
-                    .header("Accept-Language", "zh-CN,zh;q=0.8,zh-TW;q=0.7,zh-HK;q=0.5,en-US;q=0.3,en;q=0.2")
-                    .header("Accept-Encoding", "gzip, deflate")
-                    .timeout(10000)
-                    .execute();
+            // 网络错误与5xx按退避重试，单次请求最多10秒
+            SharedHttpClient.Response response = retryPolicy.execute(timeoutMs -> {
+                SharedHttpClient.Response r;
+                try {
+                    r = SharedHttpClient.getInstance().get(url, PAGE_HEADERS, Math.min(timeoutMs, 10000));
+                } catch (QueueTimeoutException e) {
+                    // 本地排队超时不计入熔断器，也不重试
+                    breaker.recordIgnored();
+                    throw e;
+                } catch (Exception e) {
+                    breaker.recordFailure();
+                    throw e;
+                }
+                // 4xx说明页面本身可以访问
+                if (r.status >= 500 || r.status == 429) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+                return r;
+            }, r -> r.status >= 500, breaker::allowRequest);
             
-            if (response.getStatus() != 200) {
-                logger.warning("获取商品页面失败，状态码: " + response.getStatus());
-                WebSalesData errorData = new WebSalesData(itemId, "HTTP错误: " + response.getStatus());
-                salesCache.put(itemId, errorData);
-                return errorData;
+            if (response.status != 200) {
+                logger.warning("获取商品页面失败，状态码: " + response.status);
+                WebSalesData errorData = new WebSalesData(itemId, "HTTP错误: " + response.status);
+                return cacheFailure(cached, errorData);
             }
             
             String html = response.body();
@@ -113,11 +153,24 @@ public class WebSalesExtractor {
         } catch (Exception e) {
             logger.error("获取商品 " + itemId + " 的网页销量时发生错误", e);
             WebSalesData errorData = new WebSalesData(itemId, "网络错误: " + e.getMessage());
-            salesCache.put(itemId, errorData);
-            return errorData;
+            return cacheFailure(cached, errorData);
         }
     }
     
+    //有过期的有效数据时返回它，否则返回error
+    private static WebSalesData lastKnownOr(WebSalesData cached, WebSalesData error) {
+        return cached != null && cached.isValid ? cached : error;
+    }
+    
+    //失败结果不覆盖仍可使用的有效数据
+    private WebSalesData cacheFailure(WebSalesData cached, WebSalesData error) {
+        if (cached != null && cached.isValid) {
+            return cached;
+        }
+        salesCache.put(error.itemId, error);
+        return error;
+    }
+    
     /**
      * 从HTML内容中解析销量信息
      * @param itemId 商品ID
@@ -289,7 +342,14 @@ public class WebSalesExtractor {
      * 异步提取销量数据
      */
     public CompletableFuture<WebSalesData> extractSalesAsync(long itemId) {
-        return CompletableFuture.supplyAsync(() -> extractSalesFromWeb(itemId), httpExecutor)
+        RequestPriority priority = RequestPriority.current();
+        return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return RequestPriority.call(priority, () -> extractSalesFromWeb(itemId));
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, httpExecutor)
             .exceptionally(throwable -> {
                 logger.error("异步提取销量失败: itemId=" + itemId, throwable);
                 return new WebSalesData(itemId, "异步提取失败: " + throwable.getMessage());
@@ -335,7 +395,8 @@ public class WebSalesExtractor {
      * 清理过期缓存
      */
     public void cleanExpiredCache() {
-        salesCache.entrySet().removeIf(entry -> entry.getValue().isExpired());
+        // 有效数据保留到LAST_KNOWN_MS，供页面无法访问时返回
+        salesCache.removeIf((itemId, data) -> data.isExpired() && !data.isValid);
     }
     
     /**
@@ -349,17 +410,14 @@ public class WebSalesExtractor {
      * 获取缓存统计信息
      */
     public String getCacheStats() {
-        return String.format("销量缓存统计: 缓存条目=%d", salesCache.size());
+        return salesCache.getStats();
     }
     
     /**
      * 获取线程池状态
      */
     public String getThreadPoolStats() {
-        return String.format("WebSalesExtractor线程池: 活跃=%d, 队列=%d, 完成=%d",
-            httpExecutor.getActiveCount(),
-            httpExecutor.getQueue().size(),
-            httpExecutor.getCompletedTaskCount());
+        return httpExecutor.getStats();
     }
     
     /**
@@ -372,17 +430,7 @@ public class WebSalesExtractor {
         salesCache.clear();
         
         // 关闭线程池
-        httpExecutor.shutdown();
-        try {
-            if (!httpExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
-                httpExecutor.shutdownNow();
-                logger.warning("强制关闭WebSalesExtractor线程池");
-            }
-        } catch (InterruptedException e) {
-            httpExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-            logger.error("关闭WebSalesExtractor线程池时被中断", e);
-        }
+        ExecutorRegistry.shutdown(HTTP_EXECUTOR, httpExecutor, 30000);
         
         logger.info("WebSalesExtractor已关闭");
     }
@@ -5,50 +5,112 @@ import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import net.luffy.model.WeidianBuyer;
 import net.luffy.model.WeidianCookie;
+import net.luffy.sbwa.config.ConfigConfig;
+import net.luffy.sbwa.util.BoundedCache;
+import net.luffy.sbwa.util.CircuitBreaker;
+import net.luffy.sbwa.util.ExecutorRegistry;
+import net.luffy.sbwa.util.IoExecutor;
+import net.luffy.sbwa.util.PerformanceMonitor;
+import net.luffy.sbwa.util.QueueTimeoutException;
+import net.luffy.sbwa.util.RequestPriority;
+import net.luffy.sbwa.util.RetryPolicy;
+import net.luffy.sbwa.util.SharedHttpClient;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.ArrayList;
+import java.util.Collections;
 
 public class WeidianHandler extends net.luffy.handler.WeidianHandler {
 
     public static WeidianHandler INSTANCE;
     public static final String APIStock = "https://thor.weidian.com/detail/getItemSkuInfo/1.0?param={\"itemId\":\"%s\"}";
+    // 库存接口的熔断器名，StockMonitor与库存查询共用
+    public static final String STOCK_ENDPOINT = "thor.weidian.com/getItemSkuInfo";
     
-    // 优化的线程池配置
-    private final ThreadPoolExecutor httpExecutor = new ThreadPoolExecutor(
-        5, // 核心线程数
-        20, // 最大线程数
-        60L, TimeUnit.SECONDS, // 空闲时间
-        new LinkedBlockingQueue<>(100), // 队列大小
-        r -> new Thread(r, "WeidianHttp-" + System.currentTimeMillis()),
-        new ThreadPoolExecutor.CallerRunsPolicy() // 拒绝策略
-    );
+    private static final String HTTP_EXECUTOR = "WeidianHttp";
     
-    // 库存查询结果缓存（1分钟有效期）
-    private final Map<Long, CachedStockResult> stockCache = new ConcurrentHashMap<>();
+    // 核心5、最大20线程，队列100，队列满时由调用方执行；开启虚拟线程时改为每个请求一个虚拟线程
+    private final IoExecutor httpExecutor = ExecutorRegistry.getInstance().io(HTTP_EXECUTOR, 5, 20, 100,
+        ConfigConfig.INSTANCE == null ? 64 : ConfigConfig.INSTANCE.executor_weidian_http_max_concurrency);
+    
+    // 库存查询结果缓存，失败结果按类型缓存较短时间
+    private final BoundedCache<Long, CachedStockResult> stockCache;
+    // 进行中的库存请求，用于合并同一商品的并发查询
+    private final Map<Long, CompletableFuture<CachedStockResult>> inflightStock = new ConcurrentHashMap<>();
+    
+    /**
+     * 库存查询结果类型及其缓存时间
+     */
+    public enum StockStatus {
+        OK(60000),              // 成功，1分钟有效期
+        NOT_FOUND(120000),      // 商品不存在或已下架
+        RATE_LIMITED(30000),    // 被限流
+        TRANSPORT_ERROR(10000), // 网络错误、超时或无法解析的响应
+        QUEUE_TIMEOUT(5000),    // 本地限流排队超时，未发起请求
+        CIRCUIT_OPEN(5000);     // 接口熔断中，未发起请求
+        
+        public final long ttlMs;
+        
+        StockStatus(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+    }
     
     // 缓存结果类
-    private static class CachedStockResult {
-        final long stock;
+    public static class CachedStockResult {
+        public final long stock;
+        public final StockStatus status;
+        // 各SKU的库存与规格，仅成功结果有，库存监控据此记录历史
+        public final Map<String, Integer> skuStocks;
+        public final Map<String, StockMonitor.SkuInfo> skuInfos;
         final long timestamp;
+        // 过期后最早何时可以再次后台刷新，后台刷新失败时推迟
+        final long refreshAfter;
+        
+        CachedStockResult(StockStatus status, long stock) {
+            this(status, stock, null, null);
+        }
         
-        CachedStockResult(long stock) {
+        private CachedStockResult(StockStatus status, long stock,
+                                  Map<String, Integer> skuStocks, Map<String, StockMonitor.SkuInfo> skuInfos) {
             this.stock = stock;
+            this.status = status;
+            this.skuStocks = skuStocks;
+            this.skuInfos = skuInfos;
             this.timestamp = System.currentTimeMillis();
+            this.refreshAfter = this.timestamp + status.ttlMs;
+        }
+        
+        private CachedStockResult(CachedStockResult r, long refreshAfter) {
+            this.stock = r.stock;
+            this.status = r.status;
+            this.skuStocks = r.skuStocks;
+            this.skuInfos = r.skuInfos;
+            this.timestamp = r.timestamp;
+            this.refreshAfter = refreshAfter;
+        }
+        
+        public boolean isOk() {
+            return status == StockStatus.OK;
         }
         
         boolean isValid() {
-            return System.currentTimeMillis() - timestamp < 60000; // 1分钟有效期
+            return System.currentTimeMillis() - timestamp < status.ttlMs;
         }
     }
     
+    // 过期的成功结果在此时间内仍可先返回，同时后台刷新
+    private final boolean staleWhileRevalidate;
+    private final long maxStaleMs;
+    // 库存查询的重试策略
+    private final RetryPolicy retryPolicy;
+    
     // 库存监控器、销量估算器和网页销量提取器
     private final StockMonitor stockMonitor;
     private final SalesEstimator salesEstimator;
@@ -56,45 +118,264 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
 
     public WeidianHandler() {
         INSTANCE = this;
+        ConfigConfig config = ConfigConfig.INSTANCE;
+        this.staleWhileRevalidate = config == null || config.stock_stale_while_revalidate;
+        this.maxStaleMs = config == null ? 600000L : config.stock_max_stale_ms;
+        this.retryPolicy = RetryPolicy.fromConfig();
+        // 条目最长保留到陈旧上限，更短的有效期由结果类型决定
+        this.stockCache = new BoundedCache<>("库存缓存",
+            config == null ? 10000 : config.stock_cache_max_entries,
+            Math.max(maxStaleMs, StockStatus.NOT_FOUND.ttlMs));
         this.stockMonitor = new StockMonitor();
         this.salesEstimator = new SalesEstimator(stockMonitor);
         this.webSalesExtractor = new WebSalesExtractor();
     }
 
+    /**
+     * @return 库存总价值，查询失败时为0
+     */
     public long getTotalStock(long id) {
+        return getStockResult(id).stock;
+    }
+    
+    /**
+     * 查询库存并返回结果类型，失败结果同样会被缓存
+     */
+    public CachedStockResult getStockResult(long id) {
         // 检查缓存
+        CachedStockResult cached = usableCache(id);
+        if (cached != null) {
+            PerformanceMonitor.getInstance().recordCacheHit();
+            return cached;
+        }
+        return loadOrAwait(id);
+    }
+    
+    /**
+     * 库存监控的采样：只使用有效期内的缓存结果，不返回陈旧结果
+     * 与PK刷新等对同一商品的并发查询合并为一次请求，结果同样写入缓存
+     */
+    public CachedStockResult getFreshStockResult(long id) {
         CachedStockResult cached = stockCache.get(id);
         if (cached != null && cached.isValid()) {
-            return cached.stock;
+            PerformanceMonitor.getInstance().recordCacheHit();
+            return cached;
+        }
+        return loadOrAwait(id);
+    }
+    
+    private CachedStockResult loadOrAwait(long id) {
+        // 同一商品同时只发起一次请求，其余调用方等待同一结果
+        CompletableFuture<CachedStockResult> mine = new CompletableFuture<>();
+        CompletableFuture<CachedStockResult> shared = inflightStock.putIfAbsent(id, mine);
+        if (shared != null) {
+            PerformanceMonitor.getInstance().recordCoalesced();
+            return awaitShared(id, shared);
+        }
+        return loadStock(id, mine);
+    }
+    
+    /**
+     * 等待其他调用方发起的请求，最多等待一次调用的截止时间
+     * 该请求可能还排在httpExecutor的队列中，线程池饱和或调用方本身就是执行线程时不会无限等待
+     * @return 超时或失败时返回最近的成功结果，没有时为TRANSPORT_ERROR
+     */
+    private CachedStockResult awaitShared(long id, CompletableFuture<CachedStockResult> shared) {
+        try {
+            return shared.get(retryPolicy.deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // 由发起请求的一方负责记录错误
+        }
+        CachedStockResult previous = stockCache.peek(id);
+        if (previous != null && previous.isOk() && System.currentTimeMillis() - previous.timestamp < maxStaleMs) {
+            return previous;
+        }
+        return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+    }
+    
+    /**
+     * @return 可以直接返回的缓存结果；过期但未超过陈旧上限的成功结果也会返回，并在后台刷新
+     */
+    private CachedStockResult usableCache(long id) {
+        CachedStockResult cached = stockCache.get(id);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isValid()) {
+            return cached;
+        }
+        
+        long now = System.currentTimeMillis();
+        if (staleWhileRevalidate && cached.isOk() && now - cached.timestamp < maxStaleMs) {
+            if (now >= cached.refreshAfter) {
+                startLoad(id);
+            }
+            return cached;
+        }
+        return null;
+    }
+    
+    /**
+     * 请求库存并完成future，完成后才移出进行中的请求表
+     */
+    private CachedStockResult loadStock(long id, CompletableFuture<CachedStockResult> future) {
+        CachedStockResult result = null;
+        try {
+            // 上一个请求可能刚刚完成并写入缓存
+            CachedStockResult cached = stockCache.peek(id);
+            if (cached != null && cached.isValid()) {
+                PerformanceMonitor.getInstance().recordCacheHit();
+                result = cached;
+            } else {
+                PerformanceMonitor.getInstance().recordCacheMiss();
+                result = fetchTotalStock(id);
+            }
+        } finally {
+            if (result == null)
+                result = new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+            inflightStock.remove(id, future);
+            future.complete(result);
+        }
+        return result;
+    }
+    
+    private CachedStockResult fetchTotalStock(long id) {
+        CachedStockResult previous = stockCache.peek(id);
+        CircuitBreaker breaker = CircuitBreaker.of(STOCK_ENDPOINT);
+        if (!breaker.allowRequest()) {
+            // 熔断期间不发起请求，有最近的成功结果时直接返回它
+            if (previous != null && previous.isOk()) {
+                CachedStockResult deferred = new CachedStockResult(previous,
+                        System.currentTimeMillis() + StockStatus.CIRCUIT_OPEN.ttlMs);
+                stockCache.put(id, deferred);
+                return deferred;
+            }
+            CachedStockResult result = new CachedStockResult(StockStatus.CIRCUIT_OPEN, 0L);
+            stockCache.put(id, result);
+            return result;
+        }
+        
+        // 只重试网络错误；被限流时重试只会加重限流
+        CachedStockResult result;
+        try {
+            result = retryPolicy.execute(timeoutMs -> requestStock(id, timeoutMs, breaker),
+                r -> r.status == StockStatus.TRANSPORT_ERROR, breaker::allowRequest);
+        } catch (Exception e) {
+            result = new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+        }
+        
+        if (!result.isOk()) {
+            PerformanceMonitor.getInstance().recordError();
+            // 后台刷新失败时继续使用旧值，按失败类型推迟下次刷新
+            if (staleWhileRevalidate && previous != null && previous.isOk()
+                    && System.currentTimeMillis() - previous.timestamp < maxStaleMs) {
+                CachedStockResult deferred = new CachedStockResult(previous,
+                        System.currentTimeMillis() + result.status.ttlMs);
+                stockCache.put(id, deferred);
+                return deferred;
+            }
+        }
+        stockCache.put(id, result);
+        return result;
+    }
+    
+    /**
+     * 请求一次库存接口，结果计入熔断器
+     */
+    private static CachedStockResult requestStock(long id, int timeoutMs, CircuitBreaker breaker) {
+        PerformanceMonitor.getInstance().recordHttpRequest();
+        CachedStockResult result;
+        // 直接发起请求以便根据HTTP状态码区分错误类型
+        try {
+            SharedHttpClient.Response response = SharedHttpClient.getInstance()
+                .get(String.format(APIStock, id), Collections.emptyMap(), timeoutMs);
+            result = parseStock(response.status, response.body());
+        } catch (QueueTimeoutException e) {
+            result = new CachedStockResult(StockStatus.QUEUE_TIMEOUT, 0L);
+        } catch (Exception e) {
+            result = new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+        }
+        // 商品不存在说明接口本身正常；本地排队超时与接口无关
+        if (result.status == StockStatus.TRANSPORT_ERROR || result.status == StockStatus.RATE_LIMITED) {
+            breaker.recordFailure();
+        } else if (result.status == StockStatus.QUEUE_TIMEOUT) {
+            breaker.recordIgnored();
+        } else {
+            breaker.recordSuccess();
+        }
+        return result;
+    }
+    
+    private static CachedStockResult parseStock(int httpStatus, String body) {
+        if (httpStatus == 429) {
+            return new CachedStockResult(StockStatus.RATE_LIMITED, 0L);
+        }
+        if (httpStatus == 404) {
+            return new CachedStockResult(StockStatus.NOT_FOUND, 0L);
+        }
+        if (httpStatus < 200 || httpStatus >= 300) {
+            return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+        }
+        
+        JSONObject o;
+        try {
+            o = JSONUtil.parseObj(body);
+        } catch (Exception e) {
+            return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+        }
+        JSONObject status = o.getJSONObject("status");
+        if (status == null) {
+            return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
+        }
+        int code = status.getInt("code", -1);
+        if (code != 0) {
+            // 微店以业务状态码返回错误，限流时提示操作频繁
+            String message = status.getStr("message", "") + status.getStr("description", "");
+            if (message.contains("频繁") || message.contains("限流") || message.contains("稍后")) {
+                return new CachedStockResult(StockStatus.RATE_LIMITED, 0L);
+            }
+            // 只有确认是商品不存在时才按不存在缓存，未知的错误按接口错误处理，不把商品误判为不存在
+            ConfigConfig config = ConfigConfig.INSTANCE;
+            if ((config != null && config.stock_not_found_codes.contains(code))
+                    || message.contains("不存在") || message.contains("下架")) {
+                return new CachedStockResult(StockStatus.NOT_FOUND, 0L);
+            }
+            return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
         }
         
+        JSONObject r = o.getJSONObject("result");
+        if (r == null) {
+            return new CachedStockResult(StockStatus.NOT_FOUND, 0L);
+        }
         try {
-            String s = get(String.format(APIStock, id));
-            JSONObject o = JSONUtil.parseObj(s);
-            if (o != null) {
-                if (o.getJSONObject("status").getInt("code") == 0) {
-                    JSONObject r = o.getJSONObject("result");
-                    long total = 0;
-                    if (r.containsKey("skuInfos")) {
-                        for (Object o1 : r.getJSONArray("skuInfos")) {
-                            JSONObject sku = JSONUtil.parseObj(o1).getJSONObject("skuInfo");
-                            int price = sku.getInt("originalPrice");//分为单位
-                            int stock = sku.getInt("stock");
-                            total += (long) price * (long) stock;
-                        }
-                    } else {
-                        total = (long) r.getInt("itemDiscountHighPrice") * (long) r.getInt("itemStock");
-                    }
-                    
-                    // 缓存结果
-                    stockCache.put(id, new CachedStockResult(total));
-                    return total;
+            long total = 0;
+            Map<String, Integer> skuStocks = new HashMap<>();
+            Map<String, StockMonitor.SkuInfo> skuInfos = new HashMap<>();
+            if (r.containsKey("skuInfos")) {
+                for (Object o1 : r.getJSONArray("skuInfos")) {
+                    JSONObject sku = JSONUtil.parseObj(o1).getJSONObject("skuInfo");
+                    String skuId = sku.getStr("skuId", "");
+                    int price = sku.getInt("originalPrice");//分为单位
+                    int stock = sku.getInt("stock");
+                    total += (long) price * (long) stock;
+                    skuStocks.put(skuId, stock);
+                    skuInfos.put(skuId, new StockMonitor.SkuInfo(skuId, price, sku.getStr("skuName", "")));
                 }
+            } else {
+                // 单SKU商品
+                int price = r.getInt("itemDiscountHighPrice");
+                int stock = r.getInt("itemStock");
+                total = (long) price * (long) stock;
+                skuStocks.put("default", stock);
+                skuInfos.put("default", new StockMonitor.SkuInfo("default", price, "默认规格"));
             }
+            return new CachedStockResult(StockStatus.OK, total,
+                Collections.unmodifiableMap(skuStocks), Collections.unmodifiableMap(skuInfos));
         } catch (Exception e) {
-            // 记录错误但不抛出异常
+            return new CachedStockResult(StockStatus.TRANSPORT_ERROR, 0L);
         }
-        return 0L;
     }
     
     /**
@@ -103,13 +384,39 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
      * @return CompletableFuture包装的库存值
      */
     public CompletableFuture<Long> getTotalStockAsync(long id) {
+        return getStockResultAsync(id).thenApply(r -> r.stock);
+    }
+    
+    /**
+     * 异步查询库存并返回结果类型
+     */
+    public CompletableFuture<CachedStockResult> getStockResultAsync(long id) {
         // 检查缓存
-        CachedStockResult cached = stockCache.get(id);
-        if (cached != null && cached.isValid()) {
-            return CompletableFuture.completedFuture(cached.stock);
+        CachedStockResult cached = usableCache(id);
+        if (cached != null) {
+            PerformanceMonitor.getInstance().recordCacheHit();
+            return CompletableFuture.completedFuture(cached);
         }
-        
-        return CompletableFuture.supplyAsync(() -> getTotalStock(id), httpExecutor);
+        return startLoad(id);
+    }
+    
+    /**
+     * 在httpExecutor上发起请求，已有进行中的请求时直接返回它
+     */
+    private CompletableFuture<CachedStockResult> startLoad(long id) {
+        CompletableFuture<CachedStockResult> mine = new CompletableFuture<>();
+        CompletableFuture<CachedStockResult> shared = inflightStock.putIfAbsent(id, mine);
+        if (shared != null) {
+            PerformanceMonitor.getInstance().recordCoalesced();
+            return shared;
+        }
+        if (httpExecutor.isShutdown()) {
+            // 关闭后CallerRunsPolicy会直接丢弃任务，future将永远不会完成
+            loadStock(id, mine);
+        } else {
+            httpExecutor.execute(RequestPriority.capture(() -> loadStock(id, mine)));
+        }
+        return mine;
     }
     
     /**
@@ -118,13 +425,28 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
      * @return 商品ID到库存值的映射
      */
     public CompletableFuture<Map<Long, Long>> getTotalStockBatch(List<Long> itemIds) {
+        return getStockResultBatch(itemIds).thenApply(results -> results.entrySet().stream()
+            .collect(Collectors.toMap(
+                Map.Entry::getKey,
+                entry -> entry.getValue().stock,
+                (existing, replacement) -> replacement,
+                ConcurrentHashMap::new
+            )));
+    }
+    
+    /**
+     * 批量查询库存（异步并行），保留每个商品的结果类型
+     * @param itemIds 商品ID列表
+     * @return 商品ID到查询结果的映射
+     */
+    public CompletableFuture<Map<Long, CachedStockResult>> getStockResultBatch(List<Long> itemIds) {
         if (itemIds == null || itemIds.isEmpty()) {
             return CompletableFuture.completedFuture(new ConcurrentHashMap<>());
         }
         
-        List<CompletableFuture<Map.Entry<Long, Long>>> futures = itemIds.stream()
-            .map(id -> getTotalStockAsync(id)
-                .thenApply(stock -> Map.entry(id, stock)))
+        List<CompletableFuture<Map.Entry<Long, CachedStockResult>>> futures = itemIds.stream()
+            .map(id -> getStockResultAsync(id)
+                .thenApply(result -> Map.entry(id, result)))
             .collect(Collectors.toList());
         
         return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
@@ -174,6 +496,25 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
         stockMonitor.startMonitoring(id, interval);
     }
     
+    /**
+     * 为PK开始智能监控，PK删除后自动停止
+     * @param id 商品ID
+     * @param pkId 依赖此商品的PK
+     */
+    public void startSmartMonitoring(long id, String pkId) {
+        int interval = salesEstimator.getRecommendedMonitoringInterval(id);
+        stockMonitor.startMonitoring(id, interval, pkId);
+    }
+    
+    /**
+     * 停止监控商品库存
+     * @param id 商品ID
+     * @return 是否正在监控
+     */
+    public boolean stopStockMonitoring(long id) {
+        return stockMonitor.stopMonitoring(id);
+    }
+    
     /**
      * 获取详细的销量分析报告
      * @param id 商品ID
@@ -275,62 +616,78 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
         return get(url);
     }
     
+    /**
+     * 带超时的HTTP GET，非2xx响应抛出异常
+     * @param timeoutMs 超时时间（毫秒）
+     * @throws QueueTimeoutException 本地排队超时，请求未发出
+     */
+    public String httpGet(String url, int timeoutMs) throws QueueTimeoutException {
+        SharedHttpClient.Response response;
+        try {
+            response = SharedHttpClient.getInstance().get(url, Collections.emptyMap(), timeoutMs);
+        } catch (QueueTimeoutException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("请求失败: " + e.getMessage(), e);
+        }
+        if (!response.isOk()) {
+            throw new RuntimeException("请求失败，状态码: " + response.status);
+        }
+        return response.body();
+    }
+    
     /**
      * 清理过期缓存
      */
     public void cleanExpiredCache() {
         long currentTime = System.currentTimeMillis();
-        stockCache.entrySet().removeIf(entry -> 
-            currentTime - entry.getValue().timestamp > 60000);
+        // 仍可作为旧值返回的成功结果保留到陈旧上限
+        stockCache.removeIf((id, r) -> {
+            long keep = staleWhileRevalidate && r.isOk() ? Math.max(maxStaleMs, r.status.ttlMs) : r.status.ttlMs;
+            return currentTime - r.timestamp > keep;
+        });
     }
     
     /**
      * 获取缓存统计信息
      */
     public String getCacheStats() {
-        int totalEntries = stockCache.size();
         long validEntries = stockCache.values().stream()
             .mapToLong(cache -> cache.isValid() ? 1 : 0)
             .sum();
         
-        return String.format("库存缓存统计: 总条目=%d, 有效条目=%d, 命中率=%.2f%%", 
-            totalEntries, validEntries, 
-            totalEntries > 0 ? (validEntries * 100.0 / totalEntries) : 0.0);
+        return String.format("%s, 有效条目=%d", stockCache.getStats(), validEntries);
     }
     
     /**
      * 获取线程池状态
      */
     public String getThreadPoolStats() {
-        return String.format("HTTP线程池状态: 活跃线程=%d, 队列大小=%d, 完成任务=%d",
-            httpExecutor.getActiveCount(),
-            httpExecutor.getQueue().size(),
-            httpExecutor.getCompletedTaskCount());
+        return httpExecutor.getStats();
     }
     
     /**
      * 停止所有监控和清理资源
+     * 父类（newboy的WeidianHandler、SyncWebHandler）没有shutdown，也不持有连接；
+     * 其get/post已改走SharedHttpClient，客户端在插件停用时由SharedHttpClient.reset关闭
      */
     public void shutdown() {
+        // 先停止定时查询与销量提取，它们会向httpExecutor提交请求
         if (stockMonitor != null) {
             stockMonitor.shutdown();
         }
         if (webSalesExtractor != null) {
-            webSalesExtractor.cleanExpiredCache();
+            webSalesExtractor.shutdown();
         }
         
+        // 关闭线程池
+        ExecutorRegistry.shutdown(HTTP_EXECUTOR, httpExecutor, 30000);
+        
         // 清理缓存
         stockCache.clear();
-        
-        // 关闭线程池
-        httpExecutor.shutdown();
-        try {
-            if (!httpExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
-                httpExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            httpExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
+        inflightStock.clear();
+        if (INSTANCE == this) {
+            INSTANCE = null;
         }
     }
 
@@ -338,4 +695,36 @@ public class WeidianHandler extends net.luffy.handler.WeidianHandler {
     protected HttpRequest setHeader(HttpRequest request) {
         return request;
     }
+
+    // 以下请求改走共享连接池，请求头与父类一致（本类的setHeader不添加请求头，只带cookie）
+
+    @Override
+    protected String get(String url) {
+        try {
+            return SharedHttpClient.getInstance().get(url).body();
+        } catch (Exception e) {
+            throw new RuntimeException("请求失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected String get(String url, WeidianCookie cookie) {
+        try {
+            return SharedHttpClient.getInstance().get(url, Map.of("Cookie", cookie.cookie),
+                SharedHttpClient.DEFAULT_TIMEOUT_MS).body();
+        } catch (Exception e) {
+            throw new RuntimeException("请求失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected String post(String url, String body, WeidianCookie cookie) {
+        try {
+            return SharedHttpClient.getInstance().post(url,
+                Map.of("Referer", "https://d.weidian.com/", "Cookie", cookie.cookie),
+                body, null, SharedHttpClient.DEFAULT_TIMEOUT_MS).body();
+        } catch (Exception e) {
+            throw new RuntimeException("请求失败: " + e.getMessage(), e);
+        }
+    }
 }
@@ -15,6 +15,7 @@ import net.luffy.sbwa.model.Lottery2;
 import net.luffy.sbwa.model.OwnedGift;
 import net.luffy.sbwa.model.OwnedProxyGift;
 import net.luffy.sbwa.model.PKOpponent;
+import net.luffy.sbwa.model.PkDefinition;
 import net.luffy.sbwa.util.PKUtil;
 import net.luffy.util.CommandOperator;
 import net.mamoe.mirai.Bot;
@@ -32,7 +33,6 @@ import kotlin.coroutines.CoroutineContext;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class listener extends SimpleListenerHost {
 
@@ -79,10 +79,10 @@ public class listener extends SimpleListenerHost {
                 }
             }
         } else if (message.equalsIgnoreCase("pk")) {
-            JSONObject[] pks = ConfigConfig.INSTANCE.getPkByGroupId(group.getId());
-            for (JSONObject pk : pks) {
+            PkDefinition[] pks = ConfigConfig.INSTANCE.getPkByGroupId(group.getId());
+            for (PkDefinition pk : pks) {
 
-                long itemid = pk.getLong("item_id");
+                long itemid = pk.itemId;
                 //已提交cookie的群
                 if (Newboy.INSTANCE.getProperties().weidian_cookie.containsKey(group.getId())) {
                     WeidianCookie cookie = Newboy.INSTANCE.getProperties().weidian_cookie.get(group.getId());
@@ -99,9 +99,9 @@ public class listener extends SimpleListenerHost {
                 }
                 //代理未提交cookie群的pk播报
                 else {
-                    if (pk.getLong("stock", 0L) != 0L) {
-                        group.sendMessage("【PK】" + pk.getStr("name")
-                                + PKUtil.getOutput(pk.getStr("pk_group", null), PKUtil.meAsOpponent(pk).feeAmount, pk));
+                    if (pk.stock != 0L) {
+                        group.sendMessage("【PK】" + pk.name
+                                + PKUtil.getOutput(pk.pkGroup, PKUtil.meAsOpponent(pk).feeAmount, pk));
                     } else {
                         group.sendMessage("获取失败");
                     }
@@ -270,12 +270,15 @@ public class listener extends SimpleListenerHost {
                     String arg2 = args[2].substring(0, args[2].indexOf(" "));
                     String arg3 = args[2].substring(args[2].indexOf(" ") + 1);
 
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2);
                     if (pks.size() == 0) {
                         sender.sendMessage("无对应此id的PK或您不可以管理");
                     } else {
                         try {
-                            if (ConfigConfig.INSTANCE.editPkByJson(pks.get(0).getKey(), JSONUtil.parseObj(arg3))) {
+                            JSONObject edited = JSONUtil.parseObj(arg3);
+                            if (ConfigConfig.INSTANCE.editPkByJson(pks.get(0).id, edited)) {
+                                // 修改时旧PK会被删除，其库存监控随之停止，按新数据重新启动
+                                autoStartMonitoringForNoCookieOpponents(edited, pks.get(0).id);
                                 sender.sendMessage("修改成功");
                             } else {
                                 sender.sendMessage("json格式错误或无法获取对手金额");
@@ -285,24 +288,24 @@ public class listener extends SimpleListenerHost {
                         }
                     }
                 } else if (args[1].equals("获取")) {
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), args[2]);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), args[2]);
                     if (pks.size() == 0) {
                         sender.sendMessage("无对应此id的PK或您不可以管理");
                     } else {
-                        sender.sendMessage(pks.get(0).getValue().toString());
+                        sender.sendMessage(pks.get(0).toJsonString());
                     }
                 } else if (args[1].equals("删除")) {
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), args[2]);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), args[2]);
                     if (pks.size() == 0) {
                         sender.sendMessage("无对应此id的PK或您不可以管理");
                     } else {
-                        ConfigConfig.INSTANCE.rmPk(pks.get(0).getKey());
+                        ConfigConfig.INSTANCE.rmPk(pks.get(0).id);
                         sender.sendMessage("删除成功");
                     }
                 } else if(args[1].equals("增加") && args[2].split(" ").length == 2){
                     //自己数据修正采用偏差值方式(如换链接)
                     String[] arg2 = args[2].split(" ");
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2[0]);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2[0]);
                     if (pks.size() == 0) {
                         sender.sendMessage("无对应此id的PK或您不可以管理");
                     } else {
@@ -317,13 +320,13 @@ public class listener extends SimpleListenerHost {
                 }
                 else if (args[1].equals("修正") && args[2].split(" ").length == 3) {
                     String[] arg2 = args[2].split(" ");
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2[0]);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), arg2[0]);
                     if (pks.size() == 0) {
                         sender.sendMessage("无对应此id的PK或您不可以管理");
                     } else {
                         String id = arg2[0];
                         if (arg2[1].equals("我")) {
-                            if (PKUtil.doGroupsHaveCookie(pks.get(0).getValue())) {
+                            if (PKUtil.doGroupsHaveCookie(pks.get(0))) {
                                 sender.sendMessage("自己数据请采用增量方式修改，“/pk 增加 "+id+" <增量/分>”");
                             }
                             //其他人&无cookie时自己数据采用修改库存方式
@@ -335,8 +338,8 @@ public class listener extends SimpleListenerHost {
                                         sender.sendMessage("金额不能为负数");
                                         return ListeningStatus.LISTENING;
                                     }
-                                    long stock_pre = pks.get(0).getValue().getLong("stock");
-                                    long balance_pre = PKUtil.meAsOpponent(pks.get(0).getValue()).feeAmount;
+                                    long stock_pre = pks.get(0).stock;
+                                    long balance_pre = PKUtil.meAsOpponent(pks.get(0)).feeAmount;
                                     long stock = balance - balance_pre + stock_pre;
                                     // 确保计算后的库存不为负数
                                     stock = Math.max(0L, stock);
@@ -374,10 +377,10 @@ public class listener extends SimpleListenerHost {
                     }
 
                 } else if (args[1].equals("全部")) {
-                    List<Map.Entry<String, JSONObject>> pks = getPkAdministrating(sender.getId(), event.getBot(), null);
+                    List<PkDefinition> pks = getPkAdministrating(sender.getId(), event.getBot(), null);
                     String a = "您可以管理的PK共" + pks.size() + "个：\n";
                     for (int i = 0; i < pks.size(); i++) {
-                        a += (i + 1) + ".(" + pks.get(i).getKey() + ")" + pks.get(i).getValue().getStr("name") + "\n";
+                        a += (i + 1) + ".(" + pks.get(i).id + ")" + pks.get(i).name + "\n";
                     }
                     sender.sendMessage(a);
                 } else {
@@ -500,8 +503,8 @@ public class listener extends SimpleListenerHost {
                             if (itemIds != null && !itemIds.isEmpty()) {
                                 for (Long itemId : itemIds) {
                                     if (itemId != null) {
-                                        // 启动智能监控
-                                        WeidianHandler.INSTANCE.startSmartMonitoring(itemId);
+                                        // 启动智能监控，PK删除后自动停止
+                                        WeidianHandler.INSTANCE.startSmartMonitoring(itemId, pkId);
                                     }
                                 }
                             }
@@ -670,16 +673,25 @@ public class listener extends SimpleListenerHost {
         return lotteries;
     }
 
-    public List<Map.Entry<String, JSONObject>> getPkAdministrating(long qqId, Bot bot, String id) {
-        List<Map.Entry<String, JSONObject>> pks = new ArrayList<>();
-        for (Map.Entry<String, JSONObject> pk : ConfigConfig.INSTANCE.getAllValidPk()) {
-            if (administratingValidJson(pk.getValue(), qqId, bot) == 0 && (id == null || pk.getKey().equals(id))) {
+    public List<PkDefinition> getPkAdministrating(long qqId, Bot bot, String id) {
+        List<PkDefinition> pks = new ArrayList<>();
+        for (PkDefinition pk : ConfigConfig.INSTANCE.getAllValidPk()) {
+            if ((id == null || pk.id.equals(id)) && administratingGroups(pk.getGroups(), qqId, bot) == 0) {
                 pks.add(pk);
             }
         }
         return pks;
     }
 
+    public long administratingGroups(long[] groups, long qqId, Bot bot) {
+        for (long g : groups) {
+            if (!NewboyWeidianAddon.INSTANCE_NEWBOY.getConfig().isAdmin(bot.getGroup(g), qqId)) {
+                return g;
+            }
+        }
+        return 0L;
+    }
+
     public long administratingValidJson(JSONObject json, long qqId, Bot bot) {
         for (Long g : json.getBeanList("groups", Long.class)) {
             if (!NewboyWeidianAddon.INSTANCE_NEWBOY.getConfig().isAdmin(bot.getGroup(g), qqId)) {
@@ -1,12 +1,13 @@
 package net.luffy.sbwa.model;
 
-import cn.hutool.core.util.RandomUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import net.luffy.sbwa.NewboyWeidianAddon;
 import net.luffy.sbwa.config.ConfigLotteryDocument;
+import net.luffy.sbwa.util.AliasSampler;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 
 public class Lottery2 {
@@ -17,6 +18,12 @@ public class Lottery2 {
     public final long[] item_ids;
     private final List<Map.Entry<Integer, Gift2>> map;
     private final Gift2[] gifts;
+    //奖品id -> gifts下标，id重复时取第一个
+    private final Map<String, Integer> giftIndex;
+    //按gifts下标抽样，无奖品时为null
+    private final AliasSampler sampler;
+    //gifts下标对应抽卡数据中的奖品序号，首次查询时建立
+    private volatile int[] dataOrdinals;
     public ConfigLotteryDocument document;
 
     public Lottery2(String lotteryId, String name, BigDecimal fee, long[] groupIds, long[] itemIds, List<Map.Entry<Integer, Gift2>> map, ConfigLotteryDocument document) {
@@ -29,22 +36,52 @@ public class Lottery2 {
         this.document = document;
 
         List<Gift2> g = new ArrayList<>();
+        int[] weights = new int[this.map.size()];
+        int previous = 0;
         for (Map.Entry<Integer, Gift2> g1 : this.map) {
+            //累积区间长度即为该奖品的权重
+            weights[g.size()] = g1.getKey() - previous;
+            previous = g1.getKey();
             g.add(g1.getValue());
         }
         this.gifts = g.toArray(new Gift2[0]);
+        this.giftIndex = new HashMap<>(this.gifts.length * 2);
+        for (int i = 0; i < this.gifts.length; i++) {
+            this.giftIndex.putIfAbsent(this.gifts[i].id, i);
+        }
+        this.sampler = previous > 0 ? new AliasSampler(weights) : null;
     }
 
     public List<Gift2> draw(double pay, long buyerId) {
-        int time = new BigDecimal(pay).divide(fee).intValue();//向下取整
-        List<Gift2> a = new ArrayList<>();
+        int time = getDrawTimes(pay);
+        List<Gift2> a = new ArrayList<>(Math.max(0, time));
+        if (time <= 0) {
+            return a;
+        }
+        if (sampler == null) {
+            NewboyWeidianAddon.INSTANCE.getLogger().warning("错误的抽卡结果: null");
+            return a;
+        }
+
+        //一次性抽完并一次写入
+        int[] drawn = sampler.next(time);
+        String[] ids = new String[time];
         for (int i = 0; i < time; i++) {
-            a.add(draw(buyerId));
+            Gift2 g = gifts[drawn[i]];
+            ids[i] = g.id;
+            a.add(g);
         }
+        this.document.getData().addGiftIds(buyerId, ids);
+
         a.sort(Comparator.comparingInt(b -> b.index));//由小到大排序
         return a;
     }
 
+    public int getDrawTimes(double pay) {
+        //向下取整，valueOf避免double二进制误差导致少抽
+        return BigDecimal.valueOf(pay).divide(fee, 0, RoundingMode.DOWN).intValue();
+    }
+
     public Gift2 draw(long buyerId) {
         Gift2 g = getRandomGift();
         if (g != null) {
@@ -56,11 +93,14 @@ public class Lottery2 {
     }
 
     public Gift2[] getOwnedGifts(long buyerId) {
+        int[] counts = getOwnedCounts(buyerId);
         List<Gift2> a = new ArrayList<>();
-        for (String id : document.getData().getGiftIds(buyerId)) {
-            Gift2 g = getGiftById(id);
-            if (g != null)
-                a.add(g);
+        for (int i = 0; i < gifts.length; i++) {
+            if (giftIndex.get(gifts[i].id) != i)
+                continue;//同id奖品只计一次
+            for (int j = 0; j < counts[i]; j++) {
+                a.add(gifts[i]);
+            }
         }
         a.sort(Comparator.comparingInt(b -> b.index));
         return a.toArray(new Gift2[0]);
@@ -68,24 +108,11 @@ public class Lottery2 {
 
     //owned用于编号全局拥有卡，用于查询，填入null忽略此功能
     public String checkOwnedGifts(long buyerId, boolean specifically, List<OwnedGift> owned) {
-        String o = "【" + name + "】";
-        String specific = "";
+        StringBuilder o = new StringBuilder("【").append(name).append("】");
+        StringBuilder specific = new StringBuilder();
 
         int length = gifts.length;
-        String[] ids = new String[gifts.length];
-        int[] counts = new int[gifts.length];
-        for (int i = 0; i < length; i++) {
-            ids[i] = gifts[i].id;
-            counts[i] = 0;
-        }
-
-        for (String id : document.getData().getGiftIds(buyerId)) {
-            for (int i = 0; i < length; i++) {
-                if (ids[i].equals(id)) {
-                    counts[i]++;
-                }
-            }
-        }
+        int[] counts = getOwnedCounts(buyerId);
 
         String quality_current = "";
         int quality_current_total = 0;
@@ -93,7 +120,7 @@ public class Lottery2 {
         for (int i = 0; i < length; i++) {
             if (!quality_current.equals(gifts[i].quality)) {
                 if (quality_current_total != 0) {
-                    o += "\n[" + quality_current + "]" + quality_current_has + "/" + quality_current_total;
+                    appendQuality(o, quality_current, quality_current_has, quality_current_total);
                 }
 
                 quality_current = gifts[i].quality;
@@ -109,29 +136,56 @@ public class Lottery2 {
                 }
 
                 if (specifically) {
-                    specific += "\n" + (owned == null ? "" : owned.size() + ".") + gifts[i].getTitle() + "*" + counts[i];
+                    specific.append("\n");
+                    if (owned != null) {
+                        specific.append(owned.size()).append(".");
+                    }
+                    specific.append(gifts[i].getTitle()).append("*").append(counts[i]);
                 }
             }
         }
         if (quality_current_total != 0) {
-            o += "\n[" + quality_current + "]" + quality_current_has + "/" + quality_current_total;
+            appendQuality(o, quality_current, quality_current_has, quality_current_total);
         }
 
         if (specifically) {
-            return o + specific;
-        } else {
-            return o;
+            o.append(specific);
         }
+        return o.toString();
+    }
 
+    private static void appendQuality(StringBuilder o, String quality, int has, int total) {
+        o.append("\n[").append(quality).append("]").append(has).append("/").append(total);
     }
 
-    public Gift2 getRandomGift() {
-        int a = RandomUtil.randomInt(0, getMaxNum());//不包含尾
-        for (Map.Entry<Integer, Gift2> g : map) {
-            if (g.getKey().intValue() > a)
-                return g.getValue();
+    //按gifts下标排列的拥有数量
+    private int[] getOwnedCounts(long buyerId) {
+        int[] ordinals = getDataOrdinals();
+        int[] owned = document.getData().getGiftCounts(buyerId);
+        int[] counts = new int[gifts.length];
+        for (int i = 0; i < gifts.length; i++) {
+            counts[i] = ordinals[i] < owned.length ? owned[ordinals[i]] : 0;
         }
-        return null;//应该不会出现的情况
+        return counts;
+    }
+
+    private int[] getDataOrdinals() {
+        int[] o = dataOrdinals;
+        if (o == null) {
+            String[] ids = new String[gifts.length];
+            for (int i = 0; i < gifts.length; i++) {
+                ids[i] = gifts[i].id;
+            }
+            o = document.getData().ordinalsOf(ids);
+            dataOrdinals = o;
+        }
+        return o;
+    }
+
+    public Gift2 getRandomGift() {
+        if (sampler == null)
+            return null;//应该不会出现的情况
+        return gifts[sampler.next()];
     }
 
     public int getMaxNum() {
@@ -139,12 +193,8 @@ public class Lottery2 {
     }
 
     public Gift2 getGiftById(String id) {
-        for (Gift2 g : gifts) {
-            if (g.id.equals(id)) {
-                return g;
-            }
-        }
-        return null;
+        Integer i = giftIndex.get(id);
+        return i == null ? null : gifts[i];
     }
 
     public Gift2[] getGifts() {
@@ -212,6 +262,7 @@ public class Lottery2 {
 
     public Lottery2 setDocument(ConfigLotteryDocument document) {
         this.document = document;
+        this.dataOrdinals = null;
         return this;
     }
 }
@@ -1,8 +1,10 @@
 package net.luffy.sbwa.model;
 
-import cn.hutool.http.HttpRequest;
+import net.luffy.sbwa.util.SharedHttpClient;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 
 public class OwnedProxyGift implements Gift {
     public final String pic;
@@ -22,7 +24,11 @@ public class OwnedProxyGift implements Gift {
 
     @Override
     public InputStream getPic() {
-        return HttpRequest.get("http://www.lgyzero.top/static/cards/" + this.pic).execute().bodyStream();
+        try {
+            return SharedHttpClient.getInstance().get("http://www.lgyzero.top/static/cards/" + this.pic).bodyStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 }
@@ -2,6 +2,7 @@ package net.luffy.sbwa.model;
 
 import cn.hutool.json.JSONObject;
 import net.luffy.model.WeidianCookie;
+import net.luffy.sbwa.handler.OpponentAmountCache;
 import net.luffy.sbwa.handler.WeidianHandler;
 import net.luffy.sbwa.handler.SalesEstimator;
 import org.apache.commons.lang3.StringUtils;
@@ -42,12 +43,12 @@ public class PKOpponent {
             boolean isAccurate;
             
             if (StringUtils.isNotBlank(opponent.getStr("cookie"))) {
-                amount = calculateTotalFee(opponent);
+                amount = calculateTotalFee(opponent.getStr("cookie"), toItemIds(opponent));
                 isAccurate = true;
             } else if (opponent.containsKey("stock")) {
                 long stock = opponent.getLong("stock", 0L);
                 // 尝试使用新的销量估算功能
-                amount = getEnhancedEstimation(opponent, stock);
+                amount = getEnhancedEstimation(toItemIds(opponent), stock);
                 isAccurate = false;
             } else {
                 amount = 1L;
@@ -66,32 +67,65 @@ public class PKOpponent {
         }
     }
 
-    private static long calculateTotalFee(JSONObject opponent) {
+    /**
+     * 由已解析的PK对手构建，结果与{@link #construct(JSONObject)}一致
+     */
+    public static PKOpponent construct(PkDefinition.Opponent opponent) {
+        return new PKOpponent(opponent.name, amountOf(opponent), opponent.hasCookie()).setGroup(opponent.pkGroup);
+    }
+
+    /**
+     * 对手金额，优先读取后台刷新的缓存
+     */
+    public static long amountOf(PkDefinition.Opponent opponent) {
+        OpponentAmountCache cache = OpponentAmountCache.INSTANCE;
+        return cache == null ? fetchAmount(opponent) : cache.get(opponent);
+    }
+
+    /**
+     * 直接计算对手金额，有cookie或需要估算时会访问微店
+     */
+    public static long fetchAmount(PkDefinition.Opponent opponent) {
+        long amount;
+        if (opponent.hasCookie()) {
+            amount = calculateTotalFee(opponent.cookie, opponent.getItemIds());
+        } else if (opponent.hasStock) {
+            amount = getEnhancedEstimation(opponent.getItemIds(), opponent.stock);
+        } else {
+            amount = 1L;
+        }
+        return Math.max(0L, amount);
+    }
+
+    private static long[] toItemIds(JSONObject opponent) {
+        List<Long> itemIds = opponent.getBeanList("item_id", Long.class);
+        if (itemIds == null)
+            return new long[0];
+        return itemIds.stream().filter(id -> id != null).mapToLong(Long::longValue).toArray();
+    }
+
+    private static long calculateTotalFee(String cookie, long[] itemIds) {
         long fee = 0;
         try {
-            String cookie = opponent.getStr("cookie");
             if (StringUtils.isBlank(cookie)) {
                 return 0;
             }
             
-            List<Long> itemIds = opponent.getBeanList("item_id", Long.class);
-            if (itemIds == null || itemIds.isEmpty()) {
+            if (itemIds.length == 0) {
                 return 0;
             }
             
             WeidianCookie wCookie = WeidianCookie.construct(cookie);
-            for (Long itemId : itemIds) {
-                if (itemId != null) {
-                    long itemFee = net.luffy.sbwa.handler.WeidianHandler.INSTANCE.getTotalFee(wCookie, itemId);
-                    
-                    // 检查累加是否会导致溢出
-                    if (itemFee > 0 && fee > Long.MAX_VALUE - itemFee) {
-                        log.warn("PK对手金额累加溢出，当前总额={}, 新增金额={}, 商品ID={}", fee, itemFee, itemId);
-                        return Long.MAX_VALUE;
-                    }
-                    
-                    fee += itemFee;
+            for (long itemId : itemIds) {
+                long itemFee = net.luffy.sbwa.handler.WeidianHandler.INSTANCE.getTotalFee(wCookie, itemId);
+                
+                // 检查累加是否会导致溢出
+                if (itemFee > 0 && fee > Long.MAX_VALUE - itemFee) {
+                    log.warn("PK对手金额累加溢出，当前总额={}, 新增金额={}, 商品ID={}", fee, itemFee, itemId);
+                    return Long.MAX_VALUE;
                 }
+                
+                fee += itemFee;
             }
         } catch (Exception e) {
             log.error("Fee calculation error", e);
@@ -113,37 +147,32 @@ public class PKOpponent {
     
     /**
      * 获取增强的销量估算
-     * @param opponent 对手数据
+     * @param itemIds 对手商品ID
      * @param baseStock 基础库存值
      * @return 增强估算的金额
      */
-    private static long getEnhancedEstimation(JSONObject opponent, long baseStock) {
+    private static long getEnhancedEstimation(long[] itemIds, long baseStock) {
         try {
-            // 获取商品ID列表
-            List<Long> itemIds = opponent.getBeanList("item_id", Long.class);
-            
-            if (itemIds != null && !itemIds.isEmpty() && WeidianHandler.INSTANCE != null) {
+            if (itemIds.length > 0 && WeidianHandler.INSTANCE != null) {
                 // 使用新的销量估算功能（无需Cookie）
                 long timeWindow = 60 * 60 * 1000; // 1小时时间窗口
                 long totalEstimatedSales = 0L;
                 
                 try {
-                    for (Long itemId : itemIds) {
-                        if (itemId != null) {
-                            // 使用无Cookie的销量估算方法
-                            SalesEstimator.EstimationResult result = WeidianHandler.INSTANCE.getEstimatedSales(itemId, timeWindow);
-                            
-                            if (result != null && result.estimatedSales > 0) {
-                                // 检查累加是否会导致溢出
-                                if (result.estimatedSales > 0 && totalEstimatedSales > Long.MAX_VALUE - result.estimatedSales) {
-                                    log.warn("增强估算金额累加溢出，当前总额={}, 新增金额={}, 商品ID={}", 
-                                            totalEstimatedSales, result.estimatedSales, itemId);
-                                    return Long.MAX_VALUE;
-                                }
-                                
-                                totalEstimatedSales += result.estimatedSales;
-                                log.debug("商品{}估算销量: {}, 累计: {}", itemId, result.estimatedSales, totalEstimatedSales);
+                    for (long itemId : itemIds) {
+                        // 使用无Cookie的销量估算方法
+                        SalesEstimator.EstimationResult result = WeidianHandler.INSTANCE.getEstimatedSales(itemId, timeWindow);
+                        
+                        if (result != null && result.estimatedSales > 0) {
+                            // 检查累加是否会导致溢出
+                            if (result.estimatedSales > 0 && totalEstimatedSales > Long.MAX_VALUE - result.estimatedSales) {
+                                log.warn("增强估算金额累加溢出，当前总额={}, 新增金额={}, 商品ID={}", 
+                                        totalEstimatedSales, result.estimatedSales, itemId);
+                                return Long.MAX_VALUE;
                             }
+                            
+                            totalEstimatedSales += result.estimatedSales;
+                            log.debug("商品{}估算销量: {}, 累计: {}", itemId, result.estimatedSales, totalEstimatedSales);
                         }
                     }
                     
@@ -0,0 +1,194 @@
+package net.luffy.sbwa.model;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已校验的PK配置，创建或修改时从json解析一次，查询时不再读取json
+ * 创建后不可修改：数组字段只通过副本对外提供，不保留对原始json的引用
+ */
+public final class PkDefinition {
+    public final String id;
+    public final String name;
+    private final long[] groups;
+    public final long itemId;
+    public final String pkGroup;     // 自己所在的pk分组，可为null
+    public final String myName;
+    public final boolean hasStock;   // 未提交cookie时自己的库存基准是否已获取
+    public final long stock;
+    public final long deviation;
+    public final List<Opponent> opponents;
+    // 是否为分组PK（有对手设置了pk_group），分组及系数在创建时按PKGroup.construct计算一次
+    public final boolean groupGame;
+    private final PKGroup[] pkGroups;
+    private final Map<String, Integer> groupOrdinals;
+    // pk_groups的副本，仅在播报时遇到配置外的分组时使用
+    private final JSONObject groupProps;
+    // 原始配置的文本，仅用于管理命令回显
+    private final String source;
+
+    public static final class Opponent {
+        public final String name;
+        public final String cookie;  // 为空表示没有cookie
+        private final long[] itemIds;
+        public final boolean hasStock;
+        public final long stock;
+        public final String pkGroup;
+        // 在pkGroups中的下标，非分组PK时为-1
+        public final int groupOrdinal;
+
+        private Opponent(JSONObject opponent, int groupOrdinal) {
+            this.name = opponent.getStr("name", "");
+            String c = opponent.getStr("cookie");
+            this.cookie = c == null || c.trim().isEmpty() ? null : c;
+            this.itemIds = toLongArray(opponent, "item_id");
+            this.hasStock = opponent.containsKey("stock");
+            this.stock = opponent.getLong("stock", 0L);
+            this.pkGroup = opponent.getStr("pk_group");
+            this.groupOrdinal = groupOrdinal;
+        }
+
+        public boolean hasCookie() {
+            return cookie != null;
+        }
+
+        /**
+         * @return 商品ID的副本
+         */
+        public long[] getItemIds() {
+            return itemIds.clone();
+        }
+
+        public boolean hasItemIds() {
+            return itemIds.length > 0;
+        }
+    }
+
+    private PkDefinition(String id, JSONObject json) {
+        this.id = id;
+        this.name = json.getStr("name");
+        this.groups = toLongArray(json, "groups");
+        this.itemId = json.getLong("item_id");
+        this.pkGroup = json.getStr("pk_group");
+        this.myName = json.getStr("myname", "我");
+        this.hasStock = json.containsKey("stock");
+        this.stock = json.getLong("stock", 0L);
+        this.deviation = json.getLong("deviation", 0L);
+        this.source = json.toString();
+
+        List<JSONObject> raw = new ArrayList<>();
+        boolean g = false;
+        for (Object op : json.getJSONArray("opponents")) {
+            JSONObject o = JSONUtil.parseObj(op);
+            raw.add(o);
+            g |= o.getStr("pk_group") != null;
+        }
+        this.groupGame = g;
+
+        Map<String, Integer> ordinals = new HashMap<>();
+        List<PKGroup> groups = new ArrayList<>();
+        JSONObject p = json.getJSONObject("pk_groups");
+        JSONObject groupProps = p == null ? null : JSONUtil.parseObj(p.toString());
+        List<Opponent> o = new ArrayList<>();
+        for (JSONObject op : raw) {
+            int ordinal = g ? groupOrdinal(groupName(op.getStr("pk_group")), groupProps, ordinals, groups) : -1;
+            o.add(new Opponent(op, ordinal));
+        }
+        if (g) {
+            groupOrdinal(groupName(this.pkGroup), groupProps, ordinals, groups);
+        }
+        this.opponents = Collections.unmodifiableList(o);
+        this.groupOrdinals = ordinals;
+        this.pkGroups = groups.toArray(new PKGroup[0]);
+        this.groupProps = groupProps;
+    }
+
+    private static int groupOrdinal(String name, JSONObject groupProps, Map<String, Integer> ordinals, List<PKGroup> groups) {
+        Integer ordinal = ordinals.get(name);
+        if (ordinal == null) {
+            ordinal = groups.size();
+            ordinals.put(name, ordinal);
+            groups.add(PKGroup.construct(name, groupProps));
+        }
+        return ordinal;
+    }
+
+    //与PKOpponent.getGroup一致，未设置分组的归入"未分组"
+    public static String groupName(String pkGroup) {
+        return pkGroup == null ? "未分组" : pkGroup;
+    }
+
+    /**
+     * @return 分组在pkGroups中的下标，不存在时返回-1
+     */
+    public int groupOrdinal(String pkGroup) {
+        Integer ordinal = groupOrdinals.get(groupName(pkGroup));
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @return 按下标排列的分组副本
+     */
+    public PKGroup[] getPkGroups() {
+        return pkGroups.clone();
+    }
+
+    /**
+     * 按pk_groups构建不在本PK中的分组
+     */
+    public PKGroup constructGroup(String pkGroup) {
+        return PKGroup.construct(groupName(pkGroup), groupProps);
+    }
+
+    /**
+     * @return 群号的副本
+     */
+    public long[] getGroups() {
+        return groups.clone();
+    }
+
+    /**
+     * @return 创建时的原始配置
+     */
+    public String toJsonString() {
+        return source;
+    }
+
+    /**
+     * @param json 须已通过ConfigConfig.isValidPK校验
+     * @return 解析失败时返回null
+     */
+    public static PkDefinition construct(String id, JSONObject json) {
+        try {
+            return new PkDefinition(id, json);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public boolean hasGroup(long groupId) {
+        for (long g : groups) {
+            if (g == groupId)
+                return true;
+        }
+        return false;
+    }
+
+    private static long[] toLongArray(JSONObject o, String key) {
+        if (!o.containsKey(key))
+            return new long[0];
+        try {
+            List<Long> l = o.getBeanList(key, Long.class);
+            return l == null ? new long[0] : l.stream().filter(v -> v != null).mapToLong(Long::longValue).toArray();
+        } catch (Exception e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.luffy.sbwa.util;
+
+import cn.hutool.core.util.RandomUtil;
+
+/**
+ * 别名表抽样器（Vose's Alias Method）
+ * 构建一次O(n)，每次抽样O(1)，全程使用整数运算，与按整数权重的累积区间抽样分布完全一致
+ */
+public class AliasSampler {
+    private final int size;
+    private final long total;
+    // 第i列保留自身的阈值（以total为分母）
+    private final long[] threshold;
+    private final int[] alias;
+
+    /**
+     * @param weights 各项整数权重，须非负且总和大于0
+     */
+    public AliasSampler(int[] weights) {
+        if (weights == null || weights.length == 0) {
+            throw new IllegalArgumentException("权重不能为空");
+        }
+
+        this.size = weights.length;
+        long sum = 0;
+        for (int w : weights) {
+            if (w < 0) {
+                throw new IllegalArgumentException("权重不能为负数: " + w);
+            }
+            sum += w;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("权重总和必须大于0");
+        }
+        this.total = sum;
+        this.threshold = new long[size];
+        this.alias = new int[size];
+
+        // 将每项权重放大n倍，与total比较即可判断属于“小”还是“大”
+        long[] scaled = new long[size];
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int s = 0, l = 0;
+        for (int i = 0; i < size; i++) {
+            scaled[i] = (long) weights[i] * size;
+            if (scaled[i] < total) {
+                small[s++] = i;
+            } else {
+                large[l++] = i;
+            }
+        }
+
+        while (s > 0 && l > 0) {
+            int less = small[--s];
+            int more = large[--l];
+            threshold[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - total;
+            if (scaled[more] < total) {
+                small[s++] = more;
+            } else {
+                large[l++] = more;
+            }
+        }
+
+        // 剩余项整列保留自身（整数运算下不存在精度残差）
+        while (l > 0) {
+            int i = large[--l];
+            threshold[i] = total;
+            alias[i] = i;
+        }
+        while (s > 0) {
+            int i = small[--s];
+            threshold[i] = total;
+            alias[i] = i;
+        }
+    }
+
+    /**
+     * 抽取一项
+     * @return 权重数组中的下标
+     */
+    public int next() {
+        int column = RandomUtil.randomInt(0, size);
+        return RandomUtil.randomLong(0, total) < threshold[column] ? column : alias[column];
+    }
+
+    /**
+     * 连续抽取多项
+     * @param times 抽取次数
+     * @return 每次抽中的下标
+     */
+    public int[] next(int times) {
+        int[] out = new int[Math.max(0, times)];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = next();
+        }
+        return out;
+    }
+
+    /**
+     * 按别名表计算第i项被抽中的概率，以size*total为分母
+     * 表正确时等于weights[i]*size
+     */
+    long mass(int i) {
+        long m = 0;
+        for (int column = 0; column < size; column++) {
+            if (column == i) {
+                m += threshold[column];
+            }
+            if (alias[column] == i) {
+                m += total - threshold[column];
+            }
+        }
+        return m;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
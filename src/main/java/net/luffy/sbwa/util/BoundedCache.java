@@ -0,0 +1,229 @@
+package net.luffy.sbwa.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * 有界缓存 - LRU淘汰 + TinyLFU准入
+ * 满容量时新键只有在近期访问频率高于将被淘汰的最久未用条目时才会写入，
+ * 大量只访问一次的商品id不会把常用条目挤出缓存；被拒绝的写入也计为一次访问，反复请求的新键很快会被接纳
+ * 条目超过ttlMs后视为不存在；更细的有效期（如按结果类型区分）由调用方判断
+ */
+public class BoundedCache<K, V> {
+
+    private static final class Node<V> {
+        final V value;
+        final long insertedAt;
+
+        Node(V value) {
+            this.value = value;
+            this.insertedAt = System.currentTimeMillis();
+        }
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final long ttlMs;
+    // accessOrder=true，迭代顺序从最久未用开始；由this保护
+    private final LinkedHashMap<K, Node<V>> map;
+    private final FrequencySketch sketch;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param name       用于统计信息
+     * @param maxEntries 最大条目数
+     * @param ttlMs      条目最长保留时间
+     */
+    public BoundedCache(String name, int maxEntries, long ttlMs) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(this.maxEntries);
+    }
+
+    /**
+     * 读取并计入命中率与访问频率
+     */
+    public V get(K key) {
+        Node<V> node;
+        synchronized (this) {
+            sketch.increment(key);
+            node = liveNode(key);
+        }
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * 读取但不影响统计与淘汰顺序
+     */
+    public synchronized V peek(K key) {
+        Node<V> node = map.get(key);
+        return node == null || isExpired(node) ? null : node.value;
+    }
+
+    /**
+     * 写入；容量已满且新键访问频率不高于淘汰候选时不写入
+     * @return 是否已写入
+     */
+    public synchronized boolean put(K key, V value) {
+        // 访问频率由get统计，接纳的写入不再计数，否则每次未命中后的写入会让新键的频率被重复计算
+        if (map.containsKey(key) || map.size() < maxEntries) {
+            map.put(key, new Node<>(value));
+            return true;
+        }
+
+        // 优先淘汰已过期的条目
+        Iterator<Map.Entry<K, Node<V>>> it = map.entrySet().iterator();
+        Map.Entry<K, Node<V>> victim = it.next();
+        if (!isExpired(victim.getValue()) && sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+            // 拒绝也计为一次访问：同一新键再次未命中后的写入更容易胜过淘汰候选，
+            // 调用方无需处理返回值，新商品不会因频率始终低于淘汰候选而每次都访问网络
+            sketch.increment(key);
+            rejections.incrementAndGet();
+            return false;
+        }
+        it.remove();
+        evictions.incrementAndGet();
+        map.put(key, new Node<>(value));
+        return true;
+    }
+
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * 删除过期条目及满足条件的条目
+     */
+    public synchronized void removeIf(BiPredicate<K, V> filter) {
+        map.entrySet().removeIf(e -> isExpired(e.getValue()) || filter.test(e.getKey(), e.getValue().value));
+    }
+
+    public synchronized List<V> values() {
+        List<V> out = new ArrayList<>(map.size());
+        for (Node<V> node : map.values()) {
+            if (!isExpired(node))
+                out.add(node.value);
+        }
+        return out;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public String getStats() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return String.format("%s: 条目=%d/%d, 命中率=%.2f%% (%d/%d), 淘汰=%d, 拒绝写入=%d",
+                name, size(), maxEntries, total > 0 ? h * 100.0 / total : 0.0, h, total,
+                evictions.get(), rejections.get());
+    }
+
+    private Node<V> liveNode(K key) {
+        Node<V> node = map.get(key);
+        if (node != null && isExpired(node)) {
+            map.remove(key);
+            return null;
+        }
+        return node;
+    }
+
+    private boolean isExpired(Node<V> node) {
+        return System.currentTimeMillis() - node.insertedAt > ttlMs;
+    }
+
+    /**
+     * 4行Count-Min Sketch，每个计数上限15；总计数达到10倍宽度时全部减半，使频率反映近期访问
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private final int[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+
+        FrequencySketch(int maxEntries) {
+            int width = Integer.highestOneBit(Math.max(16, maxEntries) * 2 - 1);
+            this.table = new int[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(Object key) {
+            int h = spread(key.hashCode());
+            for (int i = 0; i < SEEDS.length; i++) {
+                int[] row = table[i];
+                int index = index(h, i);
+                if (row[index] < 15)
+                    row[index]++;
+            }
+            if (++samples >= sampleSize)
+                reset();
+        }
+
+        int frequency(Object key) {
+            int h = spread(key.hashCode());
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                min = Math.min(min, table[i][index(h, i)]);
+            }
+            return min;
+        }
+
+        private int index(int h, int row) {
+            int x = h * SEEDS[row];
+            return (x ^ (x >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (int[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            samples /= 2;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x45d9f3b;
+            return h ^ (h >>> 16);
+        }
+    }
+}
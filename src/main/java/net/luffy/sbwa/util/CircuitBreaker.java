@@ -0,0 +1,150 @@
+package net.luffy.sbwa.util;
+
+import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.config.ConfigConfig;
+import net.mamoe.mirai.utils.MiraiLogger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 熔断器 - 按接口统计连续失败，达到阈值后在一段时间内直接拒绝请求（打开）
+ * 冷却结束后只放行一个探测请求（半开），探测成功则恢复，失败则重新打开
+ * 被拒绝的调用方应立即返回缓存值或最近一次的已知值，而不是等待请求超时
+ */
+public class CircuitBreaker {
+
+    private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED("关闭"),
+        OPEN("打开"),
+        HALF_OPEN("半开");
+
+        public final String description;
+
+        State(String description) {
+            this.description = description;
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+
+    // 以下状态由this保护
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param name             接口名，用于日志与统计
+     * @param failureThreshold 连续失败多少次后打开
+     * @param openMs           打开后多久进入半开状态
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(1000L, openMs);
+    }
+
+    /**
+     * 获取指定接口的熔断器，参数取自配置
+     */
+    public static CircuitBreaker of(String name) {
+        return breakers.computeIfAbsent(name, n -> {
+            ConfigConfig config = ConfigConfig.INSTANCE;
+            return config == null
+                    ? new CircuitBreaker(n, 5, 30000L)
+                    : new CircuitBreaker(n, config.breaker_failure_threshold, config.breaker_open_ms);
+        });
+    }
+
+    /**
+     * 是否可以发起请求；返回true后必须调用recordSuccess、recordFailure或recordIgnored
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMs) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = false;
+                // fallthrough
+            default:
+                // 半开时同一时间只放行一个探测请求
+                if (probing) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("熔断器[" + name + "]探测成功，恢复请求");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                logger.warning("熔断器[" + name + "]连续失败" + consecutiveFailures + "次，暂停请求" + openMs + "ms");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened.incrementAndGet();
+        }
+        probing = false;
+    }
+
+    /**
+     * 请求未发往服务器（如本地排队超时），不改变状态，只释放半开时的探测名额
+     */
+    public synchronized void recordIgnored() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getStats() {
+        synchronized (this) {
+            return String.format("熔断器[%s]: 状态=%s, 连续失败=%d, 打开次数=%d, 拒绝请求=%d",
+                    name, state.description, consecutiveFailures, opened.get(), rejected.get());
+        }
+    }
+
+    /**
+     * 所有已创建的熔断器的统计信息
+     */
+    public static String getAllStats() {
+        if (breakers.isEmpty()) {
+            return "熔断器: 无";
+        }
+        StringBuilder b = new StringBuilder();
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (b.length() > 0)
+                b.append("\n");
+            b.append(breaker.getStats());
+        }
+        return b.toString();
+    }
+}
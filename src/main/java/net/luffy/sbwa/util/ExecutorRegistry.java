@@ -0,0 +1,161 @@
+package net.luffy.sbwa.util;
+
+import net.luffy.sbwa.NewboyWeidianAddon;
+import net.mamoe.mirai.utils.MiraiLogger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程池注册表 - 插件内所有线程池都由此创建，线程统一命名为 sbwa-池名-序号
+ * 提供各线程池的统计信息；插件停用时关闭各组件后，由此关闭仍未关闭的线程池，避免重载插件后线程泄漏
+ */
+public class ExecutorRegistry {
+
+    private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
+    public static final String THREAD_PREFIX = "sbwa-";
+
+    private static ExecutorRegistry instance;
+
+    // 按注册顺序保存，由this保护
+    private final Map<String, ExecutorService> executors = new LinkedHashMap<>();
+
+    private ExecutorRegistry() {
+    }
+
+    public static synchronized ExecutorRegistry getInstance() {
+        if (instance == null) {
+            instance = new ExecutorRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * 线程名为 sbwa-池名-序号，序号在池内从1开始
+     */
+    public static ThreadFactory threadFactory(String name, boolean daemon) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, THREAD_PREFIX + name + "-" + count.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        };
+    }
+
+    /**
+     * 创建并注册阻塞I/O执行器，开启虚拟线程时不创建平台线程池
+     */
+    public IoExecutor io(String name, int core, int max, int queueSize, int maxConcurrency) {
+        return register(name, IoExecutor.create(name, () -> new ThreadPoolExecutor(core, max, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), threadFactory(name, false), new ThreadPoolExecutor.CallerRunsPolicy()),
+                maxConcurrency));
+    }
+
+    /**
+     * 创建并注册定时线程池，线程为守护线程
+     */
+    public ScheduledThreadPoolExecutor scheduled(String name, int core) {
+        return register(name, new ScheduledThreadPoolExecutor(core, threadFactory(name, true)));
+    }
+
+    /**
+     * 注册由调用方创建的执行器；同名的旧执行器（如重载前遗留的）会被关闭
+     */
+    public synchronized <E extends ExecutorService> E register(String name, E executor) {
+        ExecutorService old = executors.remove(name);
+        if (old != null && old != executor && !old.isShutdown()) {
+            logger.warning("线程池 " + name + " 重复注册，关闭旧线程池");
+            old.shutdownNow();
+        }
+        executors.put(name, executor);
+        return executor;
+    }
+
+    /**
+     * 组件自行关闭线程池后调用
+     */
+    public synchronized void unregister(String name) {
+        executors.remove(name);
+    }
+
+    /**
+     * 关闭执行器：先等待已提交的任务完成，超时后强制关闭
+     */
+    public static void shutdown(String name, ExecutorService executor, long timeoutMs) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+                logger.warning("强制关闭线程池 " + name);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        getInstance().unregister(name);
+    }
+
+    /**
+     * 按注册的逆序关闭所有尚未关闭的执行器
+     * @param timeoutMs 每个执行器等待的最长时间
+     */
+    public void shutdownAll(long timeoutMs) {
+        List<Map.Entry<String, ExecutorService>> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(executors.entrySet());
+            executors.clear();
+        }
+        for (int i = remaining.size() - 1; i >= 0; i--) {
+            Map.Entry<String, ExecutorService> e = remaining.get(i);
+            if (!e.getValue().isShutdown()) {
+                logger.info("关闭线程池 " + e.getKey());
+                shutdown(e.getKey(), e.getValue(), timeoutMs);
+            }
+        }
+    }
+
+    /**
+     * 各线程池的统计信息
+     */
+    public String getStats() {
+        List<Map.Entry<String, ExecutorService>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(executors.entrySet());
+        }
+        if (snapshot.isEmpty()) {
+            return "线程池: 无";
+        }
+        StringBuilder b = new StringBuilder("线程池:");
+        for (Map.Entry<String, ExecutorService> e : snapshot) {
+            b.append("\n  ").append(describe(e.getKey(), e.getValue()));
+        }
+        return b.toString();
+    }
+
+    /**
+     * 单个执行器的统计信息
+     */
+    public static String describe(String name, ExecutorService executor) {
+        if (executor instanceof IoExecutor) {
+            return ((IoExecutor) executor).getStats();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor p = (ThreadPoolExecutor) executor;
+            return String.format("%s: 线程=%d/%d, 活跃=%d, 队列=%d, 完成任务=%d%s",
+                    name, p.getPoolSize(),
+                    p instanceof ScheduledThreadPoolExecutor ? p.getCorePoolSize() : p.getMaximumPoolSize(),
+                    p.getActiveCount(),
+                    p.getQueue().size(), p.getCompletedTaskCount(), p.isShutdown() ? ", 已关闭" : "");
+        }
+        return name + (executor.isShutdown() ? ": 已关闭" : ": 运行中");
+    }
+}
@@ -0,0 +1,107 @@
+package net.luffy.sbwa.util;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按host的令牌桶限流器 - 每个host以固定速率补充令牌，允许一定突发
+ * 令牌不足时请求排队，按优先级（同优先级按到达顺序）依次放行
+ */
+public class HostRateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond 每个host每秒放行的请求数
+     * @param burst            桶容量，即空闲后允许的突发请求数
+     */
+    public HostRateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = Math.max(0.1, permitsPerSecond);
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * 获取一个令牌
+     * @param timeoutMs 最长排队时间
+     * @return 实际排队时间（毫秒）
+     * @throws java.util.concurrent.TimeoutException 超时仍未获得令牌
+     */
+    public long acquire(String host, RequestPriority priority, long timeoutMs)
+            throws InterruptedException, java.util.concurrent.TimeoutException {
+        return buckets.computeIfAbsent(host, h -> new Bucket()).acquire(priority, timeoutMs);
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final RequestPriority priority;
+        final long seq;
+
+        Waiter(RequestPriority priority, long seq) {
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int c = Integer.compare(priority.ordinal(), o.priority.ordinal());
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final class Bucket {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+        private long seq;
+
+        long acquire(RequestPriority priority, long timeoutMs)
+                throws InterruptedException, java.util.concurrent.TimeoutException {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            lock.lock();
+            Waiter me = new Waiter(priority, seq++);
+            waiters.add(me);
+            try {
+                while (true) {
+                    refill();
+                    if (waiters.peek() == me && tokens >= 1) {
+                        tokens -= 1;
+                        waiters.remove(me);
+                        // 下一个排队者可能也能立即获得令牌
+                        changed.signalAll();
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waiters.remove(me);
+                        changed.signalAll();
+                        throw new java.util.concurrent.TimeoutException("限流排队超时");
+                    }
+                    // 等到下一个令牌补充完成，或排在前面的请求离开
+                    long untilToken = (long) ((1 - tokens) / permitsPerSecond * 1_000_000_000L);
+                    changed.awaitNanos(Math.max(100_000L, Math.min(remaining, untilToken)));
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(me);
+                changed.signalAll();
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1_000_000_000.0 * permitsPerSecond);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.luffy.sbwa.util;
+
+import net.luffy.sbwa.NewboyWeidianAddon;
+import net.luffy.sbwa.config.ConfigConfig;
+import net.mamoe.mirai.utils.MiraiLogger;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 阻塞I/O任务的执行器 - 默认使用原有的平台线程池
+ * 配置开启virtual_threads且运行在JDK 21及以上时，每个任务使用一个虚拟线程，并发数由信号量限制而不是线程池大小
+ * 插件按JDK 17编译，虚拟线程相关API通过反射调用
+ */
+public class IoExecutor extends AbstractExecutorService {
+
+    private static final MiraiLogger logger = NewboyWeidianAddon.INSTANCE.getLogger();
+    private static volatile boolean fallbackLogged = false;
+
+    private final String name;
+    // 二者只有一个不为null
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtual;
+
+    // 虚拟线程模式下的并发限制与统计
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    private IoExecutor(String name, ThreadPoolExecutor pool, ExecutorService virtual, int maxConcurrency) {
+        this.name = name;
+        this.pool = pool;
+        this.virtual = virtual;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = virtual == null ? null : new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * @param name           线程名前缀与统计名
+     * @param platformPool   未开启虚拟线程时使用的线程池
+     * @param maxConcurrency 虚拟线程模式下同时执行的任务数上限
+     */
+    public static IoExecutor create(String name, Supplier<ThreadPoolExecutor> platformPool, int maxConcurrency) {
+        IoExecutor executor = virtualOrNull(name, maxConcurrency);
+        return executor != null ? executor : new IoExecutor(name, platformPool.get(), null, 0);
+    }
+
+    /**
+     * @return 虚拟线程执行器；未开启或当前JDK不支持时为null
+     */
+    public static IoExecutor virtualOrNull(String name, int maxConcurrency) {
+        ConfigConfig config = ConfigConfig.INSTANCE;
+        if (config == null || !config.executor_virtual_threads)
+            return null;
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor(name);
+        if (virtual == null) {
+            if (!fallbackLogged) {
+                fallbackLogged = true;
+                logger.warning("当前JDK(" + System.getProperty("java.version") + ")不支持虚拟线程，继续使用平台线程池");
+            }
+            return null;
+        }
+        return new IoExecutor(name, null, virtual, Math.max(1, maxConcurrency));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, ExecutorRegistry.THREAD_PREFIX + name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            // JDK 17-18没有这些API，JDK 19-20未开启预览时调用会抛出异常
+            return null;
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual != null;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (pool != null) {
+            pool.execute(task);
+            return;
+        }
+        virtual.execute(() -> {
+            waiting.incrementAndGet();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                waiting.decrementAndGet();
+            }
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        delegate().shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate().shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate().isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate().isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate().awaitTermination(timeout, unit);
+    }
+
+    private ExecutorService delegate() {
+        return pool != null ? pool : virtual;
+    }
+
+    public String getStats() {
+        if (pool != null) {
+            return String.format("%s线程池状态: 活跃线程=%d, 队列大小=%d, 完成任务=%d",
+                    name, pool.getActiveCount(), pool.getQueue().size(), pool.getCompletedTaskCount());
+        }
+        return String.format("%s虚拟线程: 执行中=%d/%d, 等待=%d, 完成任务=%d",
+                name, active.get(), maxConcurrency, waiting.get(), completed.get());
+    }
+}
@@ -1,102 +1,142 @@
 package net.luffy.sbwa.util;
 
-import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import net.luffy.Newboy;
 import net.luffy.sbwa.model.PKGroup;
 import net.luffy.sbwa.model.PKOpponent;
+import net.luffy.sbwa.model.PkDefinition;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class PKUtil {
-    
-    public static String getOutput(String groupMe, long feeAmountMe, JSONObject pk) {
+
+    /**
+     * 输出PK播报，参与者与分组均取自已解析的PK，渲染时只计算金额与排序
+     * @param groupMe     自己所在的分组
+     * @param feeAmountMe 自己的金额（未计入偏差值）
+     */
+    public static String getOutput(String groupMe, long feeAmountMe, PkDefinition pk) {
         Objects.requireNonNull(pk, "PK数据不能为null");
-        
-        StringBuilder output = new StringBuilder("\n---------\n【PK】").append(pk.getStr("name"));
-        List<PKOpponent> opponents = getOpponents(pk.getJSONArray("opponents"));
-        
-        boolean isGroupGame = opponents.stream()
-            .anyMatch(opp -> opp.group != null);
-        
-        opponents.add(createMeAsOpponent(groupMe, feeAmountMe, pk));
-        
-        if (isGroupGame) {
-            processGroupGame(output, opponents, pk.getJSONObject("pk_groups"));
+
+        // 前n项为对手，最后一项为自己
+        int n = pk.opponents.size();
+        String[] names = new String[n + 1];
+        long[] amounts = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            PkDefinition.Opponent opponent = pk.opponents.get(i);
+            names[i] = opponent.name;
+            amounts[i] = PKOpponent.amountOf(opponent);
+        }
+        names[n] = pk.myName;
+        // 计算最终金额，确保不为负数
+        amounts[n] = Math.max(0L, feeAmountMe + pk.deviation);
+
+        StringBuilder output = new StringBuilder("\n---------\n【PK】").append(pk.name);
+        int[] order = sortDescending(amounts);
+        if (pk.groupGame) {
+            processGroupGame(output, pk, groupMe, names, amounts, order);
         } else {
-            processIndividualGame(output, opponents);
+            processIndividualGame(output, names, amounts, order);
         }
-        
+
         return output.toString();
     }
 
-    private static PKOpponent createMeAsOpponent(String group, long amount, JSONObject pk) {
-        // 计算最终金额，确保不为负数
-        long finalAmount = Math.max(0L, amount + pk.getLong("deviation", 0L));
-        
-        // 获取myname字段，如果未设置则使用默认值"我"
-        String myName = pk.getStr("myname", "我");
-        
-        return new PKOpponent(
-            myName, 
-            finalAmount, 
-            false
-        ).setGroup(group);
-    }
+    private static void processGroupGame(StringBuilder output,
+                                         PkDefinition pk,
+                                         String groupMe,
+                                         String[] names,
+                                         long[] amounts,
+                                         int[] order) {
+        PKGroup[] groups = pk.getPkGroups();
+        int me = pk.groupOrdinal(groupMe);
+        if (me < 0) {
+            // 传入的分组不在PK配置中，临时追加
+            groups = Arrays.copyOf(groups, groups.length + 1);
+            me = groups.length - 1;
+            groups[me] = pk.constructGroup(groupMe);
+        }
+
+        int n = pk.opponents.size();
+        int[] groupOf = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            groupOf[i] = pk.opponents.get(i).groupOrdinal;
+        }
+        groupOf[n] = me;
+
+        long[] totals = new long[groups.length];
+        boolean[] present = new boolean[groups.length];
+        for (int i = 0; i <= n; i++) {
+            totals[groupOf[i]] = PKGroup.appendPrice(totals[groupOf[i]], amounts[i]);
+            present[groupOf[i]] = true;
+        }
 
-    private static void processGroupGame(StringBuilder output, 
-                                        List<PKOpponent> opponents,
-                                        JSONObject groupProps) {
-        Map<String, PKGroup> groups = opponents.stream()
-            .collect(Collectors.toMap(
-                PKOpponent::getGroup,
-                opp -> PKGroup.construct(opp.getGroup(), groupProps),
-                (existing, replacement) -> existing
-            ));
-            
-        opponents.forEach(opp -> 
-            groups.get(opp.getGroup()).addOpponent(opp));
-            
-        groups.values().stream()
-            .sorted(Comparator.comparingDouble(PKGroup::getTotalInCoefficient).reversed())
-            .forEach(group -> output.append(group.getMessage()));
+        // 按系数换算后的总额排序，没有成员的分组不输出
+        long[] weighted = new long[groups.length];
+        for (int g = 0; g < groups.length; g++) {
+            weighted[g] = present[g] ? groups[g].getPriceInCoefficient(totals[g]) : Long.MIN_VALUE;
+        }
+        for (int g : sortDescending(weighted)) {
+            if (present[g]) {
+                groups[g].appendMessage(output, totals[g], names, amounts, order, groupOf, g);
+            }
+        }
     }
 
-    private static void processIndividualGame(StringBuilder output, 
-                                            List<PKOpponent> opponents) {
-        opponents.stream()
-            .sorted(Comparator.comparingLong(opp -> -opp.feeAmount))
-            .forEach(opp -> output.append("\n")
-                .append(opp.name)
+    private static void processIndividualGame(StringBuilder output,
+                                              String[] names,
+                                              long[] amounts,
+                                              int[] order) {
+        for (int i : order) {
+            output.append("\n")
+                .append(names[i])
                 .append(": ")
-                .append(opp.feeAmount / 100.0));
+                .append(amounts[i] / 100.0);
+        }
     }
 
-    public static List<PKOpponent> getOpponents(JSONArray opponents) {
-        if (opponents == null) return Collections.emptyList();
-        
-        return opponents.stream()
-            .map(obj -> PKOpponent.construct(JSONUtil.parseObj(obj)))
-            .collect(Collectors.toList());
+    // 稳定排序，返回按值从大到小排列的下标；参与者数量很少，插入排序即可
+    private static int[] sortDescending(long[] values) {
+        int[] order = new int[values.length];
+        for (int i = 0; i < order.length; i++) {
+            int j = i;
+            while (j > 0 && values[order[j - 1]] < values[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return order;
     }
 
     public static boolean doGroupsHaveCookie(JSONObject pk) {
         return pk.getBeanList("groups", Long.class).stream()
-            .allMatch(group -> 
+            .allMatch(group ->
                 Newboy.INSTANCE.getProperties()
                     .weidian_cookie.containsKey(group));
     }
 
+    public static boolean doGroupsHaveCookie(PkDefinition pk) {
+        for (long group : pk.getGroups()) {
+            if (!Newboy.INSTANCE.getProperties().weidian_cookie.containsKey(group))
+                return false;
+        }
+        return true;
+    }
+
     public static PKOpponent meAsOpponent(JSONObject pk) {
         JSONObject asOpponent = new JSONObject()
             .set("name", null)
             .set("stock", pk.getLong("stock"));
-            
+
         Optional.ofNullable(pk.getStr("group"))
             .ifPresent(group -> asOpponent.set("group", group));
-            
+
         return PKOpponent.construct(asOpponent);
     }
+
+    public static PKOpponent meAsOpponent(PkDefinition pk) {
+        // 与meAsOpponent(JSONObject)一致：自己没有商品id，金额即为库存基准
+        return new PKOpponent(null, pk.hasStock ? Math.max(0L, pk.stock) : 1L, false);
+    }
 }
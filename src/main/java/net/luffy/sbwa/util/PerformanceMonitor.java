@@ -9,10 +9,10 @@ import net.mamoe.mirai.utils.MiraiLogger;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.ThreadMXBean;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * 性能监控工具类
@@ -30,13 +30,19 @@ public class PerformanceMonitor {
     private final AtomicLong httpRequestCount = new AtomicLong(0);
     private final AtomicLong cacheHitCount = new AtomicLong(0);
     private final AtomicLong cacheMissCount = new AtomicLong(0);
+    private final AtomicLong coalescedCount = new AtomicLong(0);
     private final AtomicLong errorCount = new AtomicLong(0);
+    // 限流排队耗时，按RequestPriority下标统计
+    private final AtomicLongArray queueDelayCount = new AtomicLongArray(RequestPriority.values().length);
+    private final AtomicLongArray queueDelayTotalMs = new AtomicLongArray(RequestPriority.values().length);
+    private final AtomicLongArray queueDelayMaxMs = new AtomicLongArray(RequestPriority.values().length);
     
     private volatile boolean monitoring = false;
     
+    private static final String SCHEDULER = "PerformanceMonitor";
+    
     private PerformanceMonitor() {
-        this.scheduler = Executors.newScheduledThreadPool(1, 
-            r -> new Thread(r, "PerformanceMonitor"));
+        this.scheduler = ExecutorRegistry.getInstance().scheduled(SCHEDULER, 1);
         this.memoryBean = ManagementFactory.getMemoryMXBean();
         this.threadBean = ManagementFactory.getThreadMXBean();
     }
@@ -77,14 +83,17 @@ public class PerformanceMonitor {
         monitoring = false;
         logger.info("停止性能监控...");
         
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
+        ExecutorRegistry.shutdown(SCHEDULER, scheduler, 10000);
+    }
+    
+    /**
+     * 插件停用时调用，之后getInstance会创建新的实例
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.stopMonitoring();
+            ExecutorRegistry.shutdown(SCHEDULER, instance.scheduler, 10000);
+            instance = null;
         }
     }
     
@@ -109,6 +118,37 @@ public class PerformanceMonitor {
         cacheMissCount.incrementAndGet();
     }
     
+    /**
+     * 记录合并到进行中请求的等待（未发起新请求）
+     */
+    public void recordCoalesced() {
+        coalescedCount.incrementAndGet();
+    }
+    
+    /**
+     * 记录请求在限流器中的排队耗时
+     */
+    public void recordQueueDelay(RequestPriority priority, long delayMs) {
+        int i = priority.ordinal();
+        queueDelayCount.incrementAndGet(i);
+        queueDelayTotalMs.addAndGet(i, delayMs);
+        queueDelayMaxMs.accumulateAndGet(i, delayMs, Math::max);
+    }
+    
+    /**
+     * 获取各优先级的限流排队统计
+     */
+    public String getQueueDelayStats() {
+        StringBuilder b = new StringBuilder("限流排队:");
+        for (RequestPriority p : RequestPriority.values()) {
+            int i = p.ordinal();
+            long count = queueDelayCount.get(i);
+            b.append(String.format(" %s[次数=%d, 平均=%.1fms, 最大=%dms]", p.description, count,
+                count > 0 ? (double) queueDelayTotalMs.get(i) / count : 0.0, queueDelayMaxMs.get(i)));
+        }
+        return b.toString();
+    }
+    
     /**
      * 记录错误
      */
@@ -150,20 +190,23 @@ public class PerformanceMonitor {
             report.append(String.format("\n缓存命中率: %.1f%% (%d/%d)", 
                 getCacheHitRate(), cacheHitCount.get(), 
                 cacheHitCount.get() + cacheMissCount.get()));
+            report.append(String.format("\n合并请求数: %d", coalescedCount.get()));
             report.append(String.format("\n错误总数: %d", errorCount.get()));
+            report.append("\n" + getQueueDelayStats());
             
             // 组件状态
             try {
                 report.append("\n--- 组件状态 ---");
                 report.append("\n" + WeidianHandler.INSTANCE.getCacheStats());
-                report.append("\n" + WeidianHandler.INSTANCE.getThreadPoolStats());
+                report.append("\n" + ExecutorRegistry.getInstance().getStats());
+                report.append("\n" + SharedHttpClient.getInstance().getStats());
+                report.append("\n" + CircuitBreaker.getAllStats());
                 
                 // StockMonitor状态监控（需要实例引用）
                 // report.append("\nStockMonitor: 需要实例引用");
                 
-                WebSalesExtractor extractor = new WebSalesExtractor();
+                WebSalesExtractor extractor = WeidianHandler.INSTANCE.getWebSalesExtractor();
                 report.append("\n" + extractor.getCacheStats());
-                report.append("\n" + extractor.getThreadPoolStats());
             } catch (Exception e) {
                 report.append("\n组件状态获取失败: " + e.getMessage());
             }
@@ -202,8 +245,7 @@ public class PerformanceMonitor {
             // StockMonitor实例清理需要在具体使用时处理
             
             // 清理WebSalesExtractor缓存
-            WebSalesExtractor extractor = new WebSalesExtractor();
-            extractor.cleanExpiredCache();
+            WeidianHandler.INSTANCE.getWebSalesExtractor().cleanExpiredCache();
             
             logger.debug("缓存清理完成");
         } catch (Exception e) {
@@ -219,9 +261,9 @@ public class PerformanceMonitor {
         long maxMemory = memoryBean.getHeapMemoryUsage().getMax() / 1024 / 1024;
         int threadCount = threadBean.getThreadCount();
         
-        return String.format("性能快照: 内存=%dMB/%dMB, 线程=%d, 请求=%d, 缓存命中率=%.1f%%, 错误=%d",
+        return String.format("性能快照: 内存=%dMB/%dMB, 线程=%d, 请求=%d, 缓存命中率=%.1f%%, 合并=%d, 错误=%d",
             usedMemory, maxMemory, threadCount, httpRequestCount.get(), 
-            getCacheHitRate(), errorCount.get());
+            getCacheHitRate(), coalescedCount.get(), errorCount.get());
     }
     
     /**
@@ -231,7 +273,13 @@ public class PerformanceMonitor {
         httpRequestCount.set(0);
         cacheHitCount.set(0);
         cacheMissCount.set(0);
+        coalescedCount.set(0);
         errorCount.set(0);
+        for (int i = 0; i < queueDelayCount.length(); i++) {
+            queueDelayCount.set(i, 0);
+            queueDelayTotalMs.set(i, 0);
+            queueDelayMaxMs.set(i, 0);
+        }
         logger.info("性能计数器已重置");
     }
 }
\ No newline at end of file
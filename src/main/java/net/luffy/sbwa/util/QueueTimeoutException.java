@@ -0,0 +1,18 @@
+package net.luffy.sbwa.util;
+
+import java.io.IOException;
+
+/**
+ * 请求在本地排队（限流或等待连接）超时，没有发往服务器
+ * 不说明接口异常：不计入熔断器，也不应重试，否则只会加长队列
+ */
+public class QueueTimeoutException extends IOException {
+
+    public QueueTimeoutException(String message) {
+        super(message);
+    }
+
+    public QueueTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
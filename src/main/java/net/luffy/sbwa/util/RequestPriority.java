@@ -0,0 +1,64 @@
+package net.luffy.sbwa.util;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 外发请求的优先级，限流排队时按此顺序放行
+ * 优先级随线程传递：未设置时视为交互命令；提交到线程池的任务需在提交时捕获并在任务中恢复
+ */
+public enum RequestPriority {
+    INTERACTIVE("交互命令"),
+    PK_REFRESH("PK刷新"),
+    BACKGROUND("后台监控");
+
+    public final String description;
+
+    private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<>();
+
+    RequestPriority(String description) {
+        this.description = description;
+    }
+
+    public static RequestPriority current() {
+        RequestPriority p = CURRENT.get();
+        return p == null ? INTERACTIVE : p;
+    }
+
+    /**
+     * 以指定优先级执行，结束后恢复原优先级
+     */
+    public static <T> T call(RequestPriority priority, Callable<T> task) throws Exception {
+        RequestPriority previous = CURRENT.get();
+        CURRENT.set(priority);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static void run(RequestPriority priority, Runnable task) {
+        try {
+            call(priority, () -> {
+                task.run();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 包装任务，使其在线程池中以提交时的优先级执行
+     */
+    public static Runnable capture(Runnable task) {
+        RequestPriority priority = current();
+        return () -> run(priority, task);
+    }
+}
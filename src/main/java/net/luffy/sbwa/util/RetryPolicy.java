@@ -0,0 +1,104 @@
+package net.luffy.sbwa.util;
+
+import net.luffy.sbwa.config.ConfigConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * 重试策略 - 指数退避加完全随机抖动，限制最多尝试次数与整次调用的截止时间
+ * 只应用于幂等的GET请求；每次重试前询问调用方（通常是熔断器）是否允许，故障期间不放大请求量
+ */
+public class RetryPolicy {
+
+    /**
+     * 一次尝试
+     */
+    public interface Attempt<T> {
+        /**
+         * @param timeoutMs 本次尝试可用的时间，不超过剩余的截止时间
+         */
+        T run(int timeoutMs) throws Exception;
+    }
+
+    // 剩余时间不足时不再发起新的尝试
+    private static final long MIN_ATTEMPT_MS = 500;
+
+    public final int maxAttempts;
+    public final long baseDelayMs;
+    public final long maxDelayMs;
+    public final long deadlineMs;
+
+    /**
+     * @param maxAttempts 最多尝试次数（含首次）
+     * @param baseDelayMs 第一次重试前的退避上限，之后每次翻倍
+     * @param maxDelayMs  单次退避上限
+     * @param deadlineMs  整次调用（含所有重试与等待）的截止时间
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long deadlineMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1L, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.deadlineMs = Math.max(MIN_ATTEMPT_MS, deadlineMs);
+    }
+
+    /**
+     * 按配置创建，配置尚未加载时使用默认值
+     */
+    public static RetryPolicy fromConfig() {
+        ConfigConfig config = ConfigConfig.INSTANCE;
+        return config == null
+                ? new RetryPolicy(3, 200L, 2000L, 8000L)
+                : new RetryPolicy(config.retry_max_attempts, config.retry_base_delay_ms,
+                config.retry_max_delay_ms, config.retry_deadline_ms);
+    }
+
+    /**
+     * 执行并在失败时重试
+     * @param attempt    一次尝试；抛出异常视为可重试的失败，本地排队超时除外
+     * @param retryable  返回值是否为可重试的失败，为null时只重试异常
+     * @param mayRetry   每次重试前调用，返回false时放弃重试，为null时总是允许
+     * @return 最后一次尝试的返回值；最后一次尝试抛出异常时抛出该异常
+     */
+    public <T> T execute(Attempt<T> attempt, Predicate<T> retryable, BooleanSupplier mayRetry) throws Exception {
+        long deadline = System.currentTimeMillis() + deadlineMs;
+        for (int n = 1; ; n++) {
+            long remaining = deadline - System.currentTimeMillis();
+            T result;
+            try {
+                result = attempt.run((int) Math.max(MIN_ATTEMPT_MS, remaining));
+            } catch (Exception e) {
+                // 本地排队超时时重试只会加长队列
+                if (e instanceof QueueTimeoutException || !backoff(n, deadline, mayRetry))
+                    throw e;
+                continue;
+            }
+            if (retryable == null || !retryable.test(result) || !backoff(n, deadline, mayRetry))
+                return result;
+        }
+    }
+
+    /**
+     * 第n次尝试失败后等待退避时间
+     * @return 是否应再尝试一次
+     */
+    private boolean backoff(int n, long deadline, BooleanSupplier mayRetry) {
+        if (n >= maxAttempts)
+            return false;
+
+        // 完全抖动：在[0, min(上限, base*2^(n-1))]内均匀随机
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(n - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        if (System.currentTimeMillis() + delay + MIN_ATTEMPT_MS > deadline)
+            return false;
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return mayRetry == null || mayRetry.getAsBoolean();
+    }
+}
@@ -0,0 +1,269 @@
+package net.luffy.sbwa.util;
+
+import net.luffy.sbwa.config.ConfigConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 共享HTTP客户端 - 所有对微店、lgyzero的请求共用一个连接池
+ * 连接保持keep-alive复用，服务端支持时使用HTTP/2多路复用；每个host的并发连接数有上限
+ * 对微店的请求另经令牌桶限流，排队时按当前线程的RequestPriority放行
+ * timeoutMs为整次请求的截止时间：限流排队、等待连接、发送请求与读取响应体共用，排队耗去的时间不再留给请求
+ */
+public class SharedHttpClient {
+
+    private static SharedHttpClient instance;
+    // HttpClient的异步回调与连接管理任务在此执行，插件停用时随客户端一起关闭
+    private static final String DISPATCHER = "HttpDispatcher";
+
+    public static final int DEFAULT_TIMEOUT_MS = 30000;
+
+    private final HttpClient client;
+    private final ExecutorService dispatcher;
+    private final int maxConnectionsPerHost;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final HostRateLimiter weidianLimiter;
+
+    /**
+     * 响应内容，已读取完毕并按Content-Encoding解压
+     */
+    public static class Response {
+        public final int status;
+        public final byte[] bodyBytes;
+        private final Map<String, List<String>> headers;
+
+        Response(int status, byte[] bodyBytes, Map<String, List<String>> headers) {
+            this.status = status;
+            this.bodyBytes = bodyBytes;
+            this.headers = headers;
+        }
+
+        public boolean isOk() {
+            return status >= 200 && status < 300;
+        }
+
+        public String header(String name) {
+            for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty())
+                    return e.getValue().get(0);
+            }
+            return null;
+        }
+
+        public String body() {
+            return new String(bodyBytes, charset());
+        }
+
+        public InputStream bodyStream() {
+            return new ByteArrayInputStream(bodyBytes);
+        }
+
+        private Charset charset() {
+            String type = header("Content-Type");
+            if (type != null) {
+                int i = type.toLowerCase().indexOf("charset=");
+                if (i >= 0) {
+                    try {
+                        return Charset.forName(type.substring(i + 8).replace("\"", "").split(";")[0].trim());
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private SharedHttpClient(int maxConnectionsPerHost, int weidianRatePerSecond, int weidianBurst) {
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.weidianLimiter = new HostRateLimiter(weidianRatePerSecond, weidianBurst);
+        this.dispatcher = ExecutorRegistry.getInstance().register(DISPATCHER,
+                Executors.newCachedThreadPool(ExecutorRegistry.threadFactory(DISPATCHER, true)));
+        this.client = HttpClient.newBuilder()
+                .executor(dispatcher)
+                .version(HttpClient.Version.HTTP_2) // 服务端不支持时自动回退到HTTP/1.1
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public static synchronized SharedHttpClient getInstance() {
+        if (instance == null) {
+            ConfigConfig config = ConfigConfig.INSTANCE;
+            instance = config == null
+                    ? new SharedHttpClient(8, 5, 10)
+                    : new SharedHttpClient(config.http_max_connections_per_host, config.weidian_rate_per_second, config.weidian_burst);
+        }
+        return instance;
+    }
+
+    /**
+     * 插件停用时调用，关闭客户端的回调线程池；重新启用后按新配置创建客户端
+     * 须在发起请求的线程池都已关闭后调用
+     */
+    public static synchronized void reset() {
+        if (instance != null) {
+            ExecutorRegistry.shutdown(DISPATCHER, instance.dispatcher, 5000);
+        }
+        instance = null;
+    }
+
+    public Response get(String url) throws IOException {
+        return get(url, Collections.emptyMap(), DEFAULT_TIMEOUT_MS);
+    }
+
+    public Response get(String url, Map<String, String> headers, int timeoutMs) throws IOException {
+        return send(builder(url, headers).GET(), timeoutMs);
+    }
+
+    /**
+     * @param contentType 为null时按请求体内容判断：json或表单
+     */
+    public Response post(String url, Map<String, String> headers, String body, String contentType, int timeoutMs) throws IOException {
+        if (contentType == null) {
+            String b = body.trim();
+            contentType = b.startsWith("{") || b.startsWith("[")
+                    ? "application/json;charset=UTF-8"
+                    : "application/x-www-form-urlencoded;charset=UTF-8";
+        }
+        return send(builder(url, headers)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)), timeoutMs);
+    }
+
+    private static HttpRequest.Builder builder(String url, Map<String, String> headers) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url));
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            b.header(h.getKey(), h.getValue());
+        }
+        return b;
+    }
+
+    /**
+     * @param builder   请求超时在排队结束后按剩余时间设置
+     * @param timeoutMs 整次请求的时间上限
+     */
+    private Response send(HttpRequest.Builder builder, int timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        URI uri = builder.copy().build().uri();
+        String host = uri.getHost();
+        if (isWeidian(host))
+            throttle(host, remainingMs(deadline, host));
+
+        Semaphore permits = hostPermits.computeIfAbsent(host == null ? "" : host, h -> new Semaphore(maxConnectionsPerHost, true));
+        try {
+            if (!permits.tryAcquire(remainingMs(deadline, host), TimeUnit.MILLISECONDS))
+                throw new QueueTimeoutException("等待连接超时: " + host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待连接时被中断: " + host, e);
+        }
+
+        CompletableFuture<HttpResponse<byte[]>> future = null;
+        try {
+            long remaining = remainingMs(deadline, host);
+            // HttpClient的请求超时只计算到收到响应头，读取响应体的时间由future.get按同一截止时间限制
+            future = client.sendAsync(builder.timeout(Duration.ofMillis(remaining)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            HttpResponse<byte[]> response = future.get(remaining, TimeUnit.MILLISECONDS);
+            Map<String, List<String>> headers = response.headers().map();
+            return new Response(response.statusCode(), decode(response.body(), headers), headers);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("请求超时(" + timeoutMs + "ms): " + uri);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("请求失败: " + uri, cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("请求被中断: " + uri, e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return 距截止时间的剩余毫秒数
+     * @throws QueueTimeoutException 排队已耗尽全部时间，请求尚未发出
+     */
+    private static long remainingMs(long deadline, String host) throws QueueTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0)
+            throw new QueueTimeoutException("排队耗尽请求时间: " + host);
+        return remaining;
+    }
+
+    private static boolean isWeidian(String host) {
+        return host != null && (host.equals("weidian.com") || host.endsWith(".weidian.com"));
+    }
+
+    private void throttle(String host, long timeoutMs) throws IOException {
+        RequestPriority priority = RequestPriority.current();
+        try {
+            long waited = weidianLimiter.acquire(host, priority, timeoutMs);
+            PerformanceMonitor.getInstance().recordQueueDelay(priority, waited);
+        } catch (TimeoutException e) {
+            throw new QueueTimeoutException("限流排队超时(" + priority.description + "): " + host, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("限流排队时被中断: " + host, e);
+        }
+    }
+
+    //HttpClient不会自动解压
+    private static byte[] decode(byte[] body, Map<String, List<String>> headers) throws IOException {
+        String encoding = null;
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase("Content-Encoding") && !e.getValue().isEmpty())
+                encoding = e.getValue().get(0).trim().toLowerCase();
+        }
+        if (encoding == null || body.length == 0)
+            return body;
+
+        InputStream in;
+        if (encoding.equals("gzip")) {
+            in = new GZIPInputStream(new ByteArrayInputStream(body));
+        } else if (encoding.equals("deflate")) {
+            in = new InflaterInputStream(new ByteArrayInputStream(body));
+        } else {
+            return body;
+        }
+        try (InputStream i = in; ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4)) {
+            i.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    public String getStats() {
+        StringBuilder b = new StringBuilder("HTTP连接: 每host上限=").append(maxConnectionsPerHost);
+        hostPermits.forEach((host, p) -> b.append(", ").append(host).append("使用中=")
+                .append(maxConnectionsPerHost - p.availablePermits()));
+        return b.toString();
+    }
+}
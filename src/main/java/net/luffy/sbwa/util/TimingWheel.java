@@ -0,0 +1,135 @@
+package net.luffy.sbwa.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 哈希时间轮 - 由单个线程按固定间隔调用tick()，每次只处理一个槽
+ * 添加与取消任务均为O(1)；同一tick到期的任务一次性交给处理函数，便于批量执行
+ * 到期时间精度为一个tick
+ */
+public class TimingWheel<T> {
+
+    /**
+     * 已添加的定时任务
+     */
+    public static final class Timeout<T> {
+        public final T task;
+        final long deadline; // 以tick计
+        long rounds;         // 还需转过的圈数，只由tick线程读写
+        private volatile boolean cancelled;
+
+        Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消后在所在的槽下次被处理时移除
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMs;
+    private final List<Timeout<T>>[] buckets;
+    private final int mask;
+    private final Consumer<List<Timeout<T>>> onExpired;
+    // 其他线程添加的任务先放入队列，由tick线程放入槽中
+    private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile long tick;
+
+    /**
+     * @param wheelSize 槽数，取不小于它的2的幂
+     * @param tickMs    每个tick的时长，即到期时间的精度
+     * @param onExpired 每个tick到期的任务，在tick线程上调用
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(int wheelSize, long tickMs, Consumer<List<Timeout<T>>> onExpired) {
+        int n = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        this.tickMs = Math.max(1L, tickMs);
+        this.buckets = new List[n];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = n - 1;
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * 添加任务，至少在下一个tick到期
+     */
+    public Timeout<T> schedule(T task, long delayMs) {
+        long ticks = Math.max(1L, (delayMs + tickMs - 1) / tickMs);
+        Timeout<T> timeout = new Timeout<>(task, tick + ticks);
+        pending.add(timeout);
+        size.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * 推进一个tick，只能由同一个线程调用
+     */
+    public void tick() {
+        long now = tick;
+        transferPending(now);
+
+        // 原地压缩保留的任务，处理一个槽的开销与槽内任务数成正比
+        List<Timeout<T>> expired = new ArrayList<>();
+        List<Timeout<T>> bucket = buckets[(int) (now & mask)];
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout<T> timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                size.decrementAndGet();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+                bucket.set(kept++, timeout);
+            } else {
+                size.decrementAndGet();
+                expired.add(timeout);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+        tick = now + 1;
+
+        if (!expired.isEmpty()) {
+            onExpired.accept(expired);
+        }
+    }
+
+    private void transferPending(long now) {
+        Timeout<T> timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                size.decrementAndGet();
+                continue;
+            }
+            // 添加时tick可能已经推进，已过期的任务放入当前槽
+            long ticks = Math.max(0L, timeout.deadline - now);
+            timeout.rounds = ticks / buckets.length;
+            buckets[(int) ((now + ticks) & mask)].add(timeout);
+        }
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * @return 尚未到期的任务数（含已取消但未移除的）
+     */
+    public int size() {
+        return size.get();
+    }
+}
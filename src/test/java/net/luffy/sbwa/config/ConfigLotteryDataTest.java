@@ -0,0 +1,112 @@
+package net.luffy.sbwa.config;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigLotteryDataTest {
+
+    @TempDir
+    Path dir;
+
+    private File dataFile() {
+        return dir.resolve("data.json").toFile();
+    }
+
+    private File journalFile() {
+        return dir.resolve("data.journal").toFile();
+    }
+
+    private void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(Charset.defaultCharset()));
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+    }
+
+    /**
+     * 数量数组的长度可能小于奖品总数，补齐到n项后比较
+     */
+    private static int[] counts(ConfigLotteryData data, long buyer, int n) {
+        return Arrays.copyOf(data.getGiftCounts(buyer), n);
+    }
+
+    private static String line(long seq, long buyer, String giftId) {
+        return seq + "\t" + buyer + "\t" + 0 + "\t" + giftId + "\n";
+    }
+
+    @Test
+    public void recordsSurviveRestartBeforeCompaction() {
+        ConfigLotteryData data = new ConfigLotteryData(dataFile());
+        data.addGiftIds(1L, "a", "b", "a");
+        data.addGiftIds(2L, "b");
+
+        // 未合并时重启，只能从日志恢复
+        ConfigLotteryData reloaded = new ConfigLotteryData(dataFile());
+        assertArrayEquals(new int[]{2, 1}, counts(reloaded, 1L, 2));
+        assertArrayEquals(new int[]{0, 1}, counts(reloaded, 2L, 2));
+        assertEquals(0, reloaded.ordinalOf("a"));
+        assertEquals(1, reloaded.ordinalOf("b"));
+    }
+
+    @Test
+    public void crashBetweenSnapshotAndTruncateDoesNotReplayTwice() throws IOException {
+        // 快照已合并到序号3，但日志未清空；之后又追加了4、5
+        write(dataFile(), "{\"_seq\":3,\"_gifts\":[\"a\",\"b\"],\"100\":[2,1]}");
+        write(journalFile(), line(1, 100, "a") + line(2, 100, "a") + line(3, 100, "b")
+                + line(4, 100, "b") + line(5, 200, "a"));
+
+        ConfigLotteryData data = new ConfigLotteryData(dataFile());
+        assertArrayEquals(new int[]{2, 2}, counts(data, 100L, 2));
+        assertArrayEquals(new int[]{1, 0}, counts(data, 200L, 2));
+
+        // 启动时合并了未合并的日志，快照记录最新序号，日志已清空
+        JSONObject snapshot = JSONUtil.parseObj(read(dataFile()));
+        assertEquals(5L, snapshot.getLong("_seq").longValue());
+        assertEquals("", read(journalFile()));
+
+        ConfigLotteryData reloaded = new ConfigLotteryData(dataFile());
+        assertArrayEquals(new int[]{2, 2}, counts(reloaded, 100L, 2));
+        assertArrayEquals(new int[]{1, 0}, counts(reloaded, 200L, 2));
+    }
+
+    @Test
+    public void tornJournalTailIsIgnored() throws IOException {
+        write(dataFile(), "{\"_seq\":0,\"_gifts\":[]}");
+        write(journalFile(), line(1, 7, "a") + line(2, 7, "b") + "3\t7\t0");
+
+        ConfigLotteryData data = new ConfigLotteryData(dataFile());
+        assertArrayEquals(new int[]{1, 1}, counts(data, 7L, 2));
+
+        // 新记录的序号接在已回放的记录之后
+        data.addGiftIds(7L, "a");
+        ConfigLotteryData reloaded = new ConfigLotteryData(dataFile());
+        assertArrayEquals(new int[]{2, 1}, counts(reloaded, 7L, 2));
+    }
+
+    @Test
+    public void newGiftsExtendCountsWithoutMovingOrdinals() {
+        ConfigLotteryData data = new ConfigLotteryData(dataFile());
+        data.addGiftIds(1L, "a");
+        data.addGiftIds(2L, "b", "c");
+        data.addGiftIds(1L, "c");
+
+        assertArrayEquals(new int[]{1, 0, 1}, counts(data, 1L, 3));
+        assertArrayEquals(new int[]{0, 1, 1}, counts(data, 2L, 3));
+        assertArrayEquals(new int[0], data.getGiftCounts(3L));
+        assertTrue(journalFile().length() > 0);
+    }
+}
@@ -0,0 +1,210 @@
+package net.luffy.sbwa.handler;
+
+import net.mamoe.mirai.utils.MiraiLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StockHistoryStoreTest {
+
+    private static final long ITEM = 42L;
+    private static final long HEARTBEAT = 60_000L;
+    private static final MiraiLogger logger = MiraiLogger.Factory.INSTANCE.create(StockHistoryStoreTest.class, "StockHistoryStoreTest");
+
+    @TempDir
+    Path dir;
+
+    private StockHistoryStore open(int capacity) {
+        return new StockHistoryStore(dir.toFile(), capacity, HEARTBEAT, logger);
+    }
+
+    private File segmentFile() {
+        return dir.resolve(ITEM + ".seg").toFile();
+    }
+
+    private static Map<String, Integer> stocks(Object... pairs) {
+        Map<String, Integer> m = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            m.put((String) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return m;
+    }
+
+    /**
+     * 与StockMonitor相同：只有内存历史保存为新记录时才写入段
+     */
+    private static void sample(StockHistoryStore store, StockHistory history, long ts, long total, Map<String, Integer> stocks) {
+        if (history.append(ts, total, stocks)) {
+            store.append(ITEM, ts, total, stocks, history);
+        }
+    }
+
+    private StockHistory reload(int capacity) {
+        StockHistoryStore store = open(capacity);
+        assertTrue(store.isUnloaded(ITEM));
+        StockHistory history = store.load(ITEM, 0);
+        assertNotNull(history);
+        return history;
+    }
+
+    @Test
+    public void roundTripKeepsSkuAddedMidSegmentAndCounts() {
+        StockHistoryStore store = open(16);
+        StockHistory history = new StockHistory(16, HEARTBEAT);
+        sample(store, history, 0, 100, stocks("a", 10));
+        sample(store, history, 1000, 100, stocks("a", 10));
+        sample(store, history, 2000, 100, stocks("a", 10));
+        // 段中途出现新SKU
+        sample(store, history, 3000, 90, stocks("a", 8, "b", 5));
+        sample(store, history, 4000, 90, stocks("a", 8, "b", 5));
+        sample(store, history, 5000, 85, stocks("a", 8, "b", 4));
+        // 心跳
+        sample(store, history, 5000 + HEARTBEAT, 85, stocks("a", 8, "b", 4));
+
+        StockHistory loaded = reload(16);
+        assertEquals(4, loaded.size());
+        assertEquals(0, loaded.timestamp(0));
+        assertEquals(3000, loaded.timestamp(1));
+        assertEquals(5000, loaded.timestamp(2));
+        assertEquals(5000 + HEARTBEAT, loaded.timestamp(3));
+        assertEquals(100, loaded.total(0));
+        assertEquals(85, loaded.total(3));
+
+        // 每条记录的采样次数随下一条记录写入，最后一条记录恢复为1
+        assertEquals(3, loaded.count(0));
+        assertEquals(2, loaded.count(1));
+        assertEquals(1, loaded.count(2));
+        assertEquals(1, loaded.count(3));
+
+        assertEquals(10, loaded.skuStock(0, "a"));
+        assertEquals(StockHistory.MISSING, loaded.skuStock(0, "b"));
+        assertEquals(8, loaded.skuStock(1, "a"));
+        assertEquals(5, loaded.skuStock(1, "b"));
+        assertEquals(4, loaded.skuStock(3, "b"));
+    }
+
+    @Test
+    public void rewrittenSegmentReloadsLatestRecords() {
+        int capacity = 2;
+        StockHistoryStore store = open(capacity);
+        StockHistory history = new StockHistory(capacity, HEARTBEAT);
+        // 超过容量的4倍后重写段，每条记录代表两次采样
+        for (int i = 0; i < 12; i++) {
+            sample(store, history, i * 2000L, 100 - i, stocks("a", 100 - i));
+            sample(store, history, i * 2000L + 1000, 100 - i, stocks("a", 100 - i));
+        }
+
+        StockHistory loaded = reload(capacity);
+        assertEquals(2, loaded.size());
+        assertEquals(20000, loaded.timestamp(0));
+        assertEquals(22000, loaded.timestamp(1));
+        assertEquals(2, loaded.count(0));
+        assertEquals(1, loaded.count(1));
+        assertEquals(90, loaded.skuStock(0, "a"));
+        assertEquals(89, loaded.skuStock(1, "a"));
+    }
+
+    @Test
+    public void versionOneSegmentLoadsAndIsUpgradedOnAppend() throws IOException {
+        // 旧版本的记录不含上一条记录的采样次数
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x53425748);
+        out.writeByte(1);
+        writeSku(out, "a");
+        out.writeByte(2);
+        out.writeLong(1000);
+        out.writeLong(50);
+        out.writeShort(1);
+        out.writeInt(10);
+        writeSku(out, "b");
+        out.writeByte(3);
+        out.writeLong(2000);
+        out.writeLong(40);
+        out.writeShort(2);
+        out.writeShort(0);
+        out.writeInt(-2);
+        out.writeShort(1);
+        out.writeInt(5 - StockHistory.MISSING);
+        Files.write(segmentFile().toPath(), bytes.toByteArray());
+
+        StockHistoryStore store = open(16);
+        StockHistory history = store.load(ITEM, 0);
+        assertNotNull(history);
+        store.markLoaded(ITEM);
+        assertEquals(2, history.size());
+        assertEquals(1, history.count(0));
+        assertEquals(1, history.count(1));
+        assertEquals(10, history.skuStock(0, "a"));
+        assertEquals(StockHistory.MISSING, history.skuStock(0, "b"));
+        assertEquals(8, history.skuStock(1, "a"));
+        assertEquals(5, history.skuStock(1, "b"));
+
+        // 在旧段之后追加，重新加载时按当前版本读取
+        sample(store, history, 3000, 40, stocks("a", 8, "b", 5));
+        sample(store, history, 4000, 30, stocks("a", 6, "b", 5));
+        StockHistory loaded = reload(16);
+        assertEquals(3, loaded.size());
+        assertEquals(1, loaded.count(0));
+        assertEquals(2, loaded.count(1));
+        assertEquals(4000, loaded.timestamp(2));
+        assertEquals(6, loaded.skuStock(2, "a"));
+        assertEquals(5, loaded.skuStock(2, "b"));
+    }
+
+    @Test
+    public void tornTailKeepsCompleteRecords() throws IOException {
+        StockHistoryStore store = open(16);
+        StockHistory history = new StockHistory(16, HEARTBEAT);
+        sample(store, history, 0, 10, stocks("a", 10));
+        sample(store, history, 1000, 9, stocks("a", 9));
+        sample(store, history, 2000, 8, stocks("a", 8));
+        try (RandomAccessFile f = new RandomAccessFile(segmentFile(), "rw")) {
+            f.setLength(f.length() - 3);
+        }
+
+        StockHistory loaded = reload(16);
+        assertEquals(2, loaded.size());
+        assertEquals(9, loaded.skuStock(1, "a"));
+    }
+
+    @Test
+    public void appendAfterDeleteStartsNewSegment() throws IOException {
+        StockHistoryStore store = open(16);
+        StockHistory history = new StockHistory(16, HEARTBEAT);
+        sample(store, history, 0, 10, stocks("a", 10));
+        store.delete(ITEM);
+        assertFalse(segmentFile().exists());
+
+        history.clear();
+        sample(store, history, 1000, 9, stocks("a", 9));
+        byte[] head = Files.readAllBytes(segmentFile().toPath());
+        assertEquals(0x53425748, ((head[0] & 0xFF) << 24) | ((head[1] & 0xFF) << 16) | ((head[2] & 0xFF) << 8) | (head[3] & 0xFF));
+
+        StockHistory loaded = reload(16);
+        assertEquals(1, loaded.size());
+        assertEquals(1000, loaded.timestamp(0));
+    }
+
+    private static void writeSku(DataOutputStream out, String skuId) throws IOException {
+        byte[] id = skuId.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(1);
+        out.writeShort(id.length);
+        out.write(id);
+    }
+}
@@ -0,0 +1,80 @@
+package net.luffy.sbwa.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AliasSamplerTest {
+
+    /**
+     * 别名表给出的概率须与权重完全一致
+     */
+    private static void assertExact(int[] weights) {
+        AliasSampler sampler = new AliasSampler(weights);
+        long total = 0;
+        for (int w : weights) {
+            total += w;
+        }
+        assertEquals(total, sampler.getTotal());
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals((long) weights[i] * weights.length, sampler.mass(i), "第" + i + "项");
+        }
+    }
+
+    @Test
+    public void tableMatchesWeights() {
+        assertExact(new int[]{1});
+        assertExact(new int[]{1, 1, 1, 1});
+        assertExact(new int[]{1, 2, 3, 4, 5});
+        assertExact(new int[]{97, 1, 1, 1});
+        assertExact(new int[]{3, 7, 11, 13, 17, 19, 23, 29, 31, 37});
+    }
+
+    @Test
+    public void tableMatchesWeightsWithZeros() {
+        assertExact(new int[]{0, 5, 0, 5});
+        assertExact(new int[]{0, 0, 0, 1});
+        assertExact(new int[]{7, 0});
+    }
+
+    @Test
+    public void tableMatchesHugeWeights() {
+        // 总和超过int范围
+        assertExact(new int[]{Integer.MAX_VALUE, 1, Integer.MAX_VALUE});
+        assertExact(new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 3});
+        assertExact(new int[]{Integer.MAX_VALUE - 1, 1});
+    }
+
+    @Test
+    public void zeroWeightIsNeverDrawn() {
+        AliasSampler sampler = new AliasSampler(new int[]{0, 3, 0, 1, 0});
+        for (int i : sampler.next(100000)) {
+            assertTrue(i == 1 || i == 3, "抽中了权重为0的项: " + i);
+        }
+    }
+
+    @Test
+    public void drawsFollowWeights() {
+        int[] weights = {1, 2, 3, 4};
+        int n = 200000;
+        int[] counts = new int[weights.length];
+        for (int i : new AliasSampler(weights).next(n)) {
+            counts[i]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double p = weights[i] / 10.0;
+            // 容差为6个标准差
+            double tolerance = 6 * Math.sqrt(n * p * (1 - p));
+            assertEquals(n * p, counts[i], tolerance, "第" + i + "项");
+        }
+    }
+
+    @Test
+    public void rejectsInvalidWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new int[0]));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new int[]{1, -1}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new int[]{0, 0}));
+    }
+}
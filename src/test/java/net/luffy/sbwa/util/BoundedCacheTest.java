@@ -0,0 +1,69 @@
+package net.luffy.sbwa.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedCacheTest {
+
+    private static final int CAPACITY = 64;
+    private static final long HOT = 0L;
+
+    /**
+     * 热点键先写入并读取多次，之后填满缓存，使它成为最久未用的淘汰候选
+     */
+    private static BoundedCache<Long, String> cacheWithHotVictim() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", CAPACITY, 60000L);
+        assertNull(cache.get(HOT));
+        assertTrue(cache.put(HOT, "hot"));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(HOT));
+        }
+        for (long k = 1; k < CAPACITY; k++) {
+            assertNull(cache.get(k));
+            assertTrue(cache.put(k, "warm"));
+        }
+        assertEquals(CAPACITY, cache.size());
+        return cache;
+    }
+
+    @Test
+    public void hotKeyIsKeptWhileOneShotKeysAreRejected() {
+        BoundedCache<Long, String> cache = cacheWithHotVictim();
+
+        for (long k = 1000; k < 1200; k++) {
+            assertNull(cache.get(k));
+            assertFalse(cache.put(k, "once"), "只访问一次的键不应挤出热点键: " + k);
+        }
+
+        assertEquals("hot", cache.peek(HOT));
+        assertEquals(CAPACITY, cache.size());
+        assertEquals(200, cache.getRejections());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void repeatedlyMissedKeyIsAdmitted() {
+        BoundedCache<Long, String> cache = cacheWithHotVictim();
+        long key = 5000L;
+
+        // 每次未命中后的写入被拒绝时也计为访问，新键的频率很快超过淘汰候选
+        int attempts = 0;
+        boolean admitted = false;
+        while (!admitted && attempts < 10) {
+            attempts++;
+            assertNull(cache.get(key));
+            admitted = cache.put(key, "new");
+        }
+
+        assertTrue(admitted, "反复请求的新键应被接纳");
+        assertTrue(attempts > 1, "首次写入不应胜过热点键");
+        assertEquals("new", cache.get(key));
+        assertNull(cache.peek(HOT));
+        assertEquals(1, cache.getEvictions());
+    }
+}